@@ -2,9 +2,11 @@ package sheep;
 
 import sheep.expression.CoreFactory;
 import sheep.expression.ExpressionFactory;
+import sheep.expression.InterningFactory;
 import sheep.fun.Fibonacci;
 import sheep.fun.FunException;
 import sheep.fun.Pascal;
+import sheep.parsing.CachingParser;
 import sheep.parsing.ComplexParser;
 import sheep.parsing.Parser;
 import sheep.sheets.Sheet;
@@ -13,9 +15,14 @@ import sheep.ui.UI;
 import sheep.ui.graphical.javafx.JFXUI;
 import sheep.ui.graphical.swing.GUI;
 
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Execute the SheeP spreadsheet program.
@@ -24,6 +31,16 @@ import java.util.List;
  * @provided
  */
 public class Main {
+    /**
+     * Files saved or opened with this extension use the binary snapshot format.
+     */
+    private static final String SNAPSHOT_EXTENSION = ".sheepb";
+
+    /**
+     * The number of distinct formulas whose parsed expressions are shared.
+     */
+    private static final int PARSE_CACHE_SIZE = 10_000;
+
     private static Sheet defaultSheet(SheetBuilder builder) {
         try {
             Sheet sheet = builder.empty(20, 10);
@@ -41,11 +58,13 @@ public class Main {
      * @param uiType the type of UI to use: between TEXT, LEGACY, or default
      */
     private static void sheep(String uiType) {
-        ExpressionFactory factory = new CoreFactory();
-        Parser parser = new ComplexParser(factory);
+        ExpressionFactory factory = new InterningFactory(new CoreFactory());
+        Parser parser = new CachingParser(new ComplexParser(factory), PARSE_CACHE_SIZE);
 
         SheetBuilder builder = new SheetBuilder(parser, factory.createEmpty());
         builder.includeBuiltIn("life", factory.createConstant(42));
+        builder.parseWith(ForkJoinPool.commonPool());
+        builder.recalculateWith(ForkJoinPool.commonPool());
 
         run(uiType, builder, defaultSheet(builder));
     }
@@ -65,8 +84,16 @@ public class Main {
             if (filepath == null) {
                 return;
             }
-            try (FileWriter writer = new FileWriter(filepath)) {
-                writer.write(view.encode());
+            if (filepath.endsWith(SNAPSHOT_EXTENSION) && view instanceof Sheet sheetView) {
+                try (OutputStream out = new FileOutputStream(filepath)) {
+                    sheetView.writeSnapshot(out);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                return;
+            }
+            try (Writer writer = new BufferedWriter(new FileWriter(filepath))) {
+                view.encodeTo(writer);
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -77,7 +104,9 @@ public class Main {
                 if (filepath == null) {
                     return;
                 }
-                Sheet newSheet = builder.load(filepath);
+                Sheet newSheet = filepath.endsWith(SNAPSHOT_EXTENSION)
+                        ? builder.loadSnapshot(filepath)
+                        : builder.load(filepath);
                 ui.openWindow(newSheet, newSheet);
             } catch (Exception e) {
                 throw new RuntimeException(e);
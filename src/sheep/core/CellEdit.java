@@ -0,0 +1,13 @@
+package sheep.core;
+
+/**
+ * A request to replace the input of a single cell,
+ * as used by {@link SheetUpdate#updateAll(java.util.List)}.
+ *
+ * @param row    The row index to update.
+ * @param column The column index to update.
+ * @param input  The value as a string to replace within the sheet.
+ * @requires input != null
+ */
+public record CellEdit(int row, int column, String input) {
+}
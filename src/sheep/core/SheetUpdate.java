@@ -1,5 +1,8 @@
 package sheep.core;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Handles replacing the value of a cell with a given input.
  * @provided
@@ -15,4 +18,22 @@ public interface SheetUpdate {
      * @requires input != null
      */
     UpdateResponse update(int row, int column, String input);
+
+    /**
+     * To be called whenever one wishes to replace many cells' values at once.
+     * <p>
+     * By default, each edit is applied in order with {@link #update(int, int, String)}.
+     * Implementations may override this to apply all the edits together.
+     *
+     * @param edits The cells to replace and their new inputs, in order.
+     * @return An {@link UpdateResponse} for each edit, in the same order as the edits.
+     * @requires edits != null
+     */
+    default List<UpdateResponse> updateAll(List<CellEdit> edits) {
+        List<UpdateResponse> responses = new ArrayList<>(edits.size());
+        for (CellEdit edit : edits) {
+            responses.add(update(edit.row(), edit.column(), edit.input()));
+        }
+        return responses;
+    }
 }
@@ -1,5 +1,7 @@
 package sheep.core;
 
+import java.io.IOException;
+
 /**
  * Handles rendering of cells within a sheet.
  * @provided
@@ -47,4 +49,19 @@ public interface SheetView {
      * @return The string representation of the spreadsheet.
      */
     String encode();
+
+    /**
+     * Write the string representation of the spreadsheet to the destination.
+     * <p>
+     * The written characters must equal the result of {@link SheetView#encode()}.
+     * By default, the result of {@link SheetView#encode()} is appended in one piece;
+     * implementations may override this to stream the representation instead.
+     *
+     * @param out The destination to write the representation to.
+     * @throws IOException If the destination cannot be written to.
+     * @requires out != null
+     */
+    default void encodeTo(Appendable out) throws IOException {
+        out.append(encode());
+    }
 }
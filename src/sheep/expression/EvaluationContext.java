@@ -0,0 +1,48 @@
+package sheep.expression;
+
+import java.util.Map;
+
+/**
+ * The identifiers an expression can resolve while it is being evaluated.
+ * <p>
+ * An evaluation context lets an owner, such as a spreadsheet,
+ * answer lookups straight from its own storage instead of copying
+ * every identifier into a fresh {@link Map} for each evaluation.
+ * <pre>
+ * {@code
+ * EvaluationContext context = EvaluationContext.of(Map.of("A1", new Constant(4)));
+ * context.lookup("A1") // Constant(4)
+ * context.lookup("A2") // null
+ * }</pre>
+ */
+public interface EvaluationContext {
+    /**
+     * The expression bound to the given identifier in this context.
+     *
+     * @param identifier A reference to either a cell or a built-in.
+     * @return The expression bound to the identifier,
+     *         or null if the identifier is not bound.
+     */
+    Expression lookup(String identifier);
+
+    /**
+     * A map view of this context, for expressions that only evaluate
+     * through {@link Expression#value(Map)}.
+     * <p>
+     * Lookups through the view must agree with {@link #lookup(String)}.
+     *
+     * @return A mapping of identifiers to the expressions they hold.
+     */
+    Map<String, Expression> asMap();
+
+    /**
+     * Adapt a mapping of identifiers to expressions into an evaluation context.
+     *
+     * @param state A mapping of references to the expression they hold.
+     * @return An evaluation context backed by the given mapping.
+     * @requires state != null
+     */
+    static EvaluationContext of(Map<String, Expression> state) {
+        return new MapContext(state);
+    }
+}
@@ -62,6 +62,45 @@ public abstract class Expression {
      */
     public abstract Expression value(Map<String, Expression> state) throws TypeError;
 
+    /**
+     * The result of evaluating this expression within an evaluation context.
+     * <p>
+     * This method must agree with {@link #value(Map)} given the same bindings.
+     * By default, the context is viewed as a map and {@link #value(Map)} is called.
+     * Subclasses should override this method to resolve identifiers
+     * through {@link EvaluationContext#lookup(String)} directly.
+     *
+     * @param context The identifiers resolvable during evaluation.
+     * @return Either the expression itself or a new expression resulting from evaluation.
+     * @throws TypeError If a type error occurs in the process of evaluation.
+     */
+    public Expression value(EvaluationContext context) throws TypeError {
+        return value(context.asMap());
+    }
+
+    /**
+     * The numeric value of evaluating this expression within an evaluation context.
+     * <p>
+     * This method must agree with calling {@link #value()} on the result of
+     * {@link #value(EvaluationContext)}, including which error is thrown.
+     * By default, it is computed exactly that way.
+     * Subclasses may override this method to compute the number directly,
+     * without creating the intermediate expression.
+     * <pre>
+     * {@code
+     * Expression sum = Operation.plus(new Expression[]{new Reference("A1"), new Constant(2)});
+     * sum.number(EvaluationContext.of(Map.of("A1", new Constant(3)))); // 5
+     * }</pre>
+     *
+     * @param context The identifiers resolvable during evaluation.
+     * @return The numeric value of the evaluated expression.
+     * @throws TypeError If a type error occurs in the process of evaluation,
+     *                   or the evaluated expression does not have a numeric value.
+     */
+    public long number(EvaluationContext context) throws TypeError {
+        return value(context).value();
+    }
+
     /**
      * True if the expression is a reference.
      * The abstract class, expression, should return false by default.
@@ -0,0 +1,154 @@
+package sheep.expression;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An expression factory that shares the expressions created by another factory.
+ * <p>
+ * Creating an expression equal to one created before returns the earlier expression,
+ * so structurally equal expressions are the same instance.
+ * As operations are created from their already shared arguments,
+ * equal sub-expressions are shared throughout every expression created,
+ * such as the {@code A1 + A2} in both {@code (A1 + A2) * 2} and {@code B1 - (A1 + A2)}.
+ * This is safe as expressions are immutable,
+ * and allows results to be remembered by the identity of their expression.
+ * <p>
+ * An expression is only remembered while it is still used elsewhere,
+ * so a factory may be kept for as long as the program runs without
+ * holding on to the formulas of every sheet it has parsed.
+ * An interning factory may be used by multiple threads at once,
+ * provided the factory it wraps may be.
+ */
+public class InterningFactory implements ExpressionFactory {
+    private final ExpressionFactory factory;
+    private final Map<Shared, Shared> pool = new ConcurrentHashMap<>();
+    private final ReferenceQueue<Expression> unused = new ReferenceQueue<>();
+    private volatile Expression empty;
+
+    /**
+     * Construct a new factory sharing the expressions created by another factory.
+     *
+     * @param factory Factory used to create the expressions.
+     */
+    public InterningFactory(ExpressionFactory factory) {
+        this.factory = factory;
+    }
+
+    /*
+     * A weakly held expression, equal to another while both are held and their expressions are.
+     */
+    private static final class Shared extends WeakReference<Expression> {
+        private final int hash;
+
+        private Shared(Expression expression, ReferenceQueue<Expression> queue) {
+            super(expression, queue);
+            this.hash = expression.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Shared shared) || hash != shared.hash) {
+                return false;
+            }
+            Expression expression = get();
+            return expression != null && expression.equals(shared.get());
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private void forgetUnused() {
+        for (Reference<?> cleared = unused.poll(); cleared != null; cleared = unused.poll()) {
+            pool.remove(cleared, cleared);
+        }
+    }
+
+    private Expression intern(Expression expression) {
+        forgetUnused();
+        Shared created = new Shared(expression, unused);
+        while (true) {
+            Shared existing = pool.putIfAbsent(created, created);
+            if (existing == null) {
+                return expression;
+            }
+            Expression shared = existing.get();
+            if (shared != null) {
+                return shared;
+            }
+            // the equal expression was collected after it was found, so replace it
+            pool.remove(existing, existing);
+        }
+    }
+
+    /**
+     * The shared expression equal to the reference created by the wrapped factory.
+     *
+     * @param identifier A reference to either a cell or a built-in.
+     * @return The shared reference to the identifier.
+     */
+    @Override
+    public Expression createReference(String identifier) {
+        return intern(factory.createReference(identifier));
+    }
+
+    /**
+     * The shared expression equal to the constant created by the wrapped factory.
+     *
+     * @param value A constant long value of the expression.
+     * @return The shared constant of the value.
+     */
+    @Override
+    public Expression createConstant(long value) {
+        return intern(factory.createConstant(value));
+    }
+
+    /**
+     * The empty expression created by the wrapped factory when first asked for.
+     * Empty expressions hold nothing, so the same one is always returned.
+     *
+     * @return The shared empty expression.
+     */
+    @Override
+    public Expression createEmpty() {
+        Expression created = empty;
+        if (created == null) {
+            // another thread may create one at the same time, either may be kept
+            created = factory.createEmpty();
+            empty = created;
+        }
+        return created;
+    }
+
+    /**
+     * The shared expression equal to the operator created by the wrapped factory.
+     *
+     * @param name An identifier for the operator, e.g. +, *.
+     * @param args The arguments to the operator.
+     * @return The shared operator expression.
+     * @throws InvalidExpression If the wrapped factory cannot create the operator.
+     */
+    @Override
+    public Expression createOperator(String name, Object[] args) throws InvalidExpression {
+        return intern(factory.createOperator(name, args));
+    }
+
+    /**
+     * The number of distinct expressions shared by this factory that may still be in use.
+     *
+     * @return The number of expressions remembered.
+     */
+    public int size() {
+        forgetUnused();
+        return pool.size();
+    }
+}
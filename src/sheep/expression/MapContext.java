@@ -0,0 +1,30 @@
+package sheep.expression;
+
+import java.util.Map;
+
+/**
+ * An evaluation context backed by a mapping of identifiers to expressions.
+ * This is the adapter behind {@link Expression#value(Map)}.
+ */
+class MapContext implements EvaluationContext {
+    private final Map<String, Expression> state;
+
+    /**
+     * Construct a context that resolves identifiers from the given mapping.
+     *
+     * @param state A mapping of references to the expression they hold.
+     */
+    MapContext(Map<String, Expression> state) {
+        this.state = state;
+    }
+
+    @Override
+    public Expression lookup(String identifier) {
+        return state.get(identifier);
+    }
+
+    @Override
+    public Map<String, Expression> asMap() {
+        return state;
+    }
+}
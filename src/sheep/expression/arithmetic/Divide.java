@@ -1,6 +1,10 @@
 package sheep.expression.arithmetic;
 
+import sheep.expression.EvaluationContext;
 import sheep.expression.Expression;
+import sheep.expression.TypeError;
+
+import java.util.function.LongBinaryOperator;
 
 /**
  * A division operation.
@@ -38,4 +42,46 @@ public class Divide extends Arithmetic {
         }
         return result;
     }
+
+    /**
+     * Divide the first argument by each later argument as they are evaluated.
+     * As with {@link #perform(long[])}, dividing by zero only fails once
+     * every argument has been evaluated without a type error.
+     *
+     * @param context The identifiers resolvable during evaluation.
+     * @return The first argument divided by the rest.
+     * @throws TypeError If any argument cannot be converted to a numeric value.
+     */
+    @Override
+    public long number(EvaluationContext context) throws TypeError {
+        if (arguments.length == 0) {
+            return super.number(context);
+        }
+        long result = arguments[0].number(context);
+        boolean byZero = false;
+        for (int i = 1; i < arguments.length; i++) {
+            long divisor = arguments[i].number(context);
+            // a later argument may still have a type error, which takes precedence
+            if (divisor == 0) {
+                byZero = true;
+            } else if (!byZero) {
+                result /= divisor;
+            }
+        }
+        if (byZero) {
+            throw new ArithmeticException("/ by zero");
+        }
+        return result;
+    }
+
+    /**
+     * A divide operation divides the result of the earlier values by each later value,
+     * throwing an ArithmeticException if the value is zero.
+     *
+     * @return The function combining the result over the earlier values with the next value.
+     */
+    @Override
+    public LongBinaryOperator combiner() {
+        return (result, value) -> result / value;
+    }
 }
@@ -1,6 +1,8 @@
 package sheep.expression.arithmetic;
 
+import sheep.expression.EvaluationContext;
 import sheep.expression.Expression;
+import sheep.expression.TypeError;
 
 /**
  * An equal to operation.
@@ -42,4 +44,29 @@ public class Equal extends Arithmetic {
         }
         return 1;
     }
+
+    /**
+     * Compare each argument with the one before it as they are evaluated.
+     *
+     * @param context The identifiers resolvable during evaluation.
+     * @return 1 if all the arguments are equal, 0 otherwise.
+     * @throws TypeError If any argument cannot be converted to a numeric value.
+     */
+    @Override
+    public long number(EvaluationContext context) throws TypeError {
+        if (arguments.length == 0) {
+            return 1;
+        }
+        long previous = arguments[0].number(context);
+        long result = 1;
+        // every argument is evaluated, as a later one may have a type error
+        for (int i = 1; i < arguments.length; i++) {
+            long next = arguments[i].number(context);
+            if (previous != next) {
+                result = 0;
+            }
+            previous = next;
+        }
+        return result;
+    }
 }
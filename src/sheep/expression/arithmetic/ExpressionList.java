@@ -1,6 +1,10 @@
 package sheep.expression.arithmetic;
 
+import sheep.expression.EvaluationContext;
 import sheep.expression.Expression;
+import sheep.expression.TypeError;
+
+import java.util.function.LongBinaryOperator;
 
 /**
  * A List expression.
@@ -29,4 +33,33 @@ public class ExpressionList extends Arithmetic {
     protected long perform(long[] arguments) {
         return arguments[arguments.length - 1];
     }
+
+    /**
+     * The numeric value of the last argument, after evaluating every argument.
+     *
+     * @param context The identifiers resolvable during evaluation.
+     * @return The value of the last argument.
+     * @throws TypeError If any argument cannot be converted to a numeric value.
+     */
+    @Override
+    public long number(EvaluationContext context) throws TypeError {
+        if (arguments.length == 0) {
+            return super.number(context);
+        }
+        long result = 0;
+        for (Expression argument : arguments) {
+            result = argument.number(context);
+        }
+        return result;
+    }
+
+    /**
+     * A list operation takes its last value, ignoring the earlier values.
+     *
+     * @return The function combining the result over the earlier values with the next value.
+     */
+    @Override
+    public LongBinaryOperator combiner() {
+        return (result, value) -> value;
+    }
 }
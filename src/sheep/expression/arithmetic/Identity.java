@@ -1,6 +1,10 @@
 package sheep.expression.arithmetic;
 
+import sheep.expression.EvaluationContext;
 import sheep.expression.Expression;
+import sheep.expression.TypeError;
+
+import java.util.function.LongBinaryOperator;
 
 /**
  * The identity function expression.
@@ -28,4 +32,33 @@ public class Identity extends Function {
     protected long perform(long[] arguments) {
         return arguments[0];
     }
+
+    /**
+     * The numeric value of the first argument, after evaluating every argument.
+     *
+     * @param context The identifiers resolvable during evaluation.
+     * @return The value of the first argument.
+     * @throws TypeError If any argument cannot be converted to a numeric value.
+     */
+    @Override
+    public long number(EvaluationContext context) throws TypeError {
+        if (arguments.length == 0) {
+            return super.number(context);
+        }
+        long result = arguments[0].number(context);
+        for (int i = 1; i < arguments.length; i++) {
+            arguments[i].number(context);
+        }
+        return result;
+    }
+
+    /**
+     * An identity operation keeps its first value, ignoring any later values.
+     *
+     * @return The function combining the result over the earlier values with the next value.
+     */
+    @Override
+    public LongBinaryOperator combiner() {
+        return (result, value) -> result;
+    }
 }
@@ -1,6 +1,8 @@
 package sheep.expression.arithmetic;
 
+import sheep.expression.EvaluationContext;
 import sheep.expression.Expression;
+import sheep.expression.TypeError;
 
 import java.util.Arrays;
 
@@ -27,4 +29,19 @@ public class Mean extends Function {
     protected long perform(long[] arguments) {
         return Arrays.stream(arguments).sum() / arguments.length;
     }
+
+    /**
+     * Sum the arguments as they are evaluated, then take their mean.
+     * @param context The identifiers resolvable during evaluation.
+     * @return the mean of the arguments.
+     * @throws TypeError If any argument cannot be converted to a numeric value.
+     */
+    @Override
+    public long number(EvaluationContext context) throws TypeError {
+        long sum = 0;
+        for (Expression argument : arguments) {
+            sum += argument.number(context);
+        }
+        return sum / arguments.length;
+    }
 }
@@ -1,6 +1,8 @@
 package sheep.expression.arithmetic;
 
+import sheep.expression.EvaluationContext;
 import sheep.expression.Expression;
+import sheep.expression.TypeError;
 
 import java.util.Arrays;
 
@@ -25,11 +27,31 @@ public class Median extends Function {
      */
     @Override
     protected long perform(long[] arguments) {
-        var argsCopy = Arrays.stream(arguments).sorted().toArray();
+        return median(arguments.clone());
+    }
+
+    private static long median(long[] values) {
+        Arrays.sort(values);
+
+        if (values.length % 2 == 0) {
+            return (values[values.length / 2] + values[(values.length / 2) - 1]) / 2;
+        }
+        return values[values.length / 2];
+    }
 
-        if (argsCopy.length % 2 == 0) {
-            return (argsCopy[argsCopy.length / 2] + argsCopy[(argsCopy.length / 2) - 1]) / 2;
+    /**
+     * Take the median of the evaluated arguments.
+     * @param context The identifiers resolvable during evaluation.
+     * @return the median of the arguments.
+     * @throws TypeError If any argument cannot be converted to a numeric value.
+     */
+    @Override
+    public long number(EvaluationContext context) throws TypeError {
+        long[] values = new long[arguments.length];
+        for (int i = 0; i < arguments.length; i++) {
+            values[i] = arguments[i].number(context);
         }
-        return argsCopy[argsCopy.length / 2];
+        // the values are not shared, so they are sorted in place
+        return median(values);
     }
 }
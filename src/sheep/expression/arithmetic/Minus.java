@@ -1,6 +1,10 @@
 package sheep.expression.arithmetic;
 
+import sheep.expression.EvaluationContext;
 import sheep.expression.Expression;
+import sheep.expression.TypeError;
+
+import java.util.function.LongBinaryOperator;
 
 /**
  * A minus operation.
@@ -38,4 +42,33 @@ public class Minus extends Arithmetic {
         }
         return result;
     }
+
+    /**
+     * Subtract the numeric values of the later arguments from the first as they are evaluated.
+     *
+     * @param context The identifiers resolvable during evaluation.
+     * @return The first argument minus the rest.
+     * @throws TypeError If any argument cannot be converted to a numeric value.
+     */
+    @Override
+    public long number(EvaluationContext context) throws TypeError {
+        if (arguments.length == 0) {
+            return super.number(context);
+        }
+        long result = arguments[0].number(context);
+        for (int i = 1; i < arguments.length; i++) {
+            result -= arguments[i].number(context);
+        }
+        return result;
+    }
+
+    /**
+     * A minus operation subtracts each later value from the result of the earlier values.
+     *
+     * @return The function combining the result over the earlier values with the next value.
+     */
+    @Override
+    public LongBinaryOperator combiner() {
+        return (result, value) -> result - value;
+    }
 }
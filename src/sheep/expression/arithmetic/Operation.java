@@ -1,11 +1,13 @@
 package sheep.expression.arithmetic;
 
+import sheep.expression.EvaluationContext;
 import sheep.expression.Expression;
 import sheep.expression.TypeError;
 import sheep.expression.basic.Constant;
 import sheep.expression.basic.Nothing;
 
 import java.util.*;
+import java.util.function.LongBinaryOperator;
 
 /**
  * An operation expression.
@@ -15,10 +17,14 @@ import java.util.*;
 public abstract class Operation extends Expression {
     protected final String operator;
     protected final Expression[] arguments;
+    private final Set<String> dependencies;
+    private final int hash;
 
     protected Operation(String operator, Expression[] arguments) {
         this.operator = operator;
         this.arguments = arguments;
+        this.dependencies = union(arguments);
+        this.hash = 31 * operator.hashCode() + Arrays.hashCode(arguments);
     }
 
     /**
@@ -192,22 +198,84 @@ public abstract class Operation extends Expression {
      * plus.dependencies() // {"A1", "A2", "B1"}
      * }</pre>
      *
-     * @return A set containing the union of all sub-expression dependencies.
+     * @return An unmodifiable set containing the union of all sub-expression dependencies.
      */
     @Override
     public Set<String> dependencies() {
-        Set<String> dependencies = new HashSet<>();
-        for (Expression expression : arguments) {
-            dependencies.addAll(expression.dependencies());
-        }
         return dependencies;
     }
 
+    /*
+     * Computed once, as expressions are immutable.
+     * The set of a lone argument with dependencies is shared rather than copied.
+     * For example, both operations of {@code (A1 + 1) * 2} share the set of {@code A1}.
+     */
+    private static Set<String> union(Expression[] arguments) {
+        Set<String> union = null;
+        Set<String> only = Set.of();
+        for (Expression argument : arguments) {
+            Set<String> dependencies = argument.dependencies();
+            if (dependencies.isEmpty()) {
+                continue;
+            }
+            if (only.isEmpty()) {
+                only = dependencies;
+            } else {
+                if (union == null) {
+                    union = new HashSet<>(only);
+                }
+                union.addAll(dependencies);
+            }
+        }
+        // copying an immutable set, such as that of another operation, returns it as is
+        return Set.copyOf(union == null ? only : union);
+    }
+
     @Override
     public String render() {
         return this.toString();
     }
 
+    /**
+     * If two operations are equal to each other.
+     * Equality is defined by being the same kind of operation,
+     * with the same operator and equal arguments in the same order.
+     * <pre>
+     * {@code
+     * Operation one = Operation.plus(new Expression[]{new Reference("A1"), new Constant(2)});
+     * Operation two = Operation.plus(new Expression[]{new Reference("A1"), new Constant(2)});
+     * one.equals(two); // true
+     * one.equals(Operation.times(new Expression[]{new Reference("A1"), new Constant(2)})); // false
+     * }</pre>
+     *
+     * @param object Another object to compare against.
+     * @return If the given object is equal to this object.
+     */
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) {
+            return true;
+        }
+        if (object == null || getClass() != object.getClass()) {
+            return false;
+        }
+        Operation operation = (Operation) object;
+        return hash == operation.hash
+                && operator.equals(operation.operator)
+                && Arrays.equals(arguments, operation.arguments);
+    }
+
+    /**
+     * A hashcode method that respects the {@link Operation#equals(Object)} method.
+     * It is computed once, when the operation is constructed.
+     *
+     * @return An appropriate hashcode value for this instance.
+     */
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
     /**
      * The result of evaluating this expression.
      * <p>
@@ -223,11 +291,41 @@ public abstract class Operation extends Expression {
      */
     @Override
     public Expression value(Map<String, Expression> state) throws TypeError {
+        return value(EvaluationContext.of(state));
+    }
+
+    /**
+     * The result of evaluating this expression within an evaluation context.
+     * Behaves as {@link #value(Map)}, resolving sub-expressions through the context.
+     *
+     * @param context The identifiers resolvable during evaluation.
+     * @return A constant expression of the result.
+     * @throws TypeError If any of the sub-expressions cannot be converted to a numeric value.
+     */
+    @Override
+    public Expression value(EvaluationContext context) throws TypeError {
+        return new Constant(number(context));
+    }
+
+    /**
+     * The numeric result of evaluating this expression within an evaluation context,
+     * as given by {@link #value(EvaluationContext)}.
+     * <p>
+     * Every sub-expression is evaluated, in order, before the operation is performed.
+     * Subclasses may override this method to perform the operation as the sub-expressions
+     * are evaluated, provided the same result or error is produced.
+     *
+     * @param context The identifiers resolvable during evaluation.
+     * @return The result of performing the operation.
+     * @throws TypeError If any of the sub-expressions cannot be converted to a numeric value.
+     */
+    @Override
+    public long number(EvaluationContext context) throws TypeError {
         long[] values = new long[arguments.length];
         for (int i = 0; i < arguments.length; i++) {
-            values[i] = arguments[i].value(state).value();
+            values[i] = arguments[i].number(context);
         }
-        return new Constant(perform(values));
+        return perform(values);
     }
 
     /**
@@ -241,6 +339,40 @@ public abstract class Operation extends Expression {
         throw new TypeError();
     }
 
+    /**
+     * Perform this operation over the values of already evaluated arguments,
+     * ignoring the arguments of this operation.
+     * <pre>
+     * {@code
+     * Operation.plus(new Expression[]{new Reference("A1")}).apply(new long[]{4, 5}); // 9
+     * }</pre>
+     *
+     * @param values The numeric values to perform the operation upon.
+     * @return The result of performing the operation.
+     */
+    public long apply(long[] values) {
+        return perform(values);
+    }
+
+    /**
+     * The function this operation is a left fold of, if any:
+     * its result over some values is the first value combined with each later value in turn.
+     * Such an operation may be performed as its values are found, without collecting them.
+     * As when evaluating an operation, a failure to combine values,
+     * such as dividing by zero, should only be raised once every value has been found.
+     * <pre>
+     * {@code
+     * Operation.minus(new Expression[]{new Reference("A1")}).combiner().applyAsLong(12, 2); // 10
+     * }</pre>
+     *
+     * @return The function combining the result over the earlier values with the next value,
+     *         which may throw an ArithmeticException, such as when dividing by zero,
+     *         or null if this operation is not performed by combining its values in order.
+     */
+    public LongBinaryOperator combiner() {
+        return null;
+    }
+
     /**
      * Perform the operation over a list of numbers.
      * <p>
@@ -1,6 +1,10 @@
 package sheep.expression.arithmetic;
 
+import sheep.expression.EvaluationContext;
 import sheep.expression.Expression;
+import sheep.expression.TypeError;
+
+import java.util.function.LongBinaryOperator;
 
 /**
  * A plus operation.
@@ -38,4 +42,30 @@ public class Plus extends Arithmetic {
         }
         return result;
     }
+
+    /**
+     * Add the numeric values of the arguments as they are evaluated.
+     *
+     * @param context The identifiers resolvable during evaluation.
+     * @return The sum of the arguments.
+     * @throws TypeError If any argument cannot be converted to a numeric value.
+     */
+    @Override
+    public long number(EvaluationContext context) throws TypeError {
+        long result = 0;
+        for (Expression argument : arguments) {
+            result += argument.number(context);
+        }
+        return result;
+    }
+
+    /**
+     * A plus operation adds each value to the sum of the earlier values.
+     *
+     * @return The function combining the result over the earlier values with the next value.
+     */
+    @Override
+    public LongBinaryOperator combiner() {
+        return (result, value) -> result + value;
+    }
 }
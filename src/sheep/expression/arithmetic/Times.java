@@ -1,6 +1,10 @@
 package sheep.expression.arithmetic;
 
+import sheep.expression.EvaluationContext;
 import sheep.expression.Expression;
+import sheep.expression.TypeError;
+
+import java.util.function.LongBinaryOperator;
 
 /**
  * A times operation.
@@ -38,4 +42,30 @@ public class Times extends Arithmetic {
         }
         return result;
     }
+
+    /**
+     * Multiply the numeric values of the arguments as they are evaluated.
+     *
+     * @param context The identifiers resolvable during evaluation.
+     * @return The product of the arguments.
+     * @throws TypeError If any argument cannot be converted to a numeric value.
+     */
+    @Override
+    public long number(EvaluationContext context) throws TypeError {
+        long result = 1;
+        for (Expression argument : arguments) {
+            result *= argument.number(context);
+        }
+        return result;
+    }
+
+    /**
+     * A times operation multiplies the product of the earlier values by each value.
+     *
+     * @return The function combining the result over the earlier values with the next value.
+     */
+    @Override
+    public LongBinaryOperator combiner() {
+        return (result, value) -> result * value;
+    }
 }
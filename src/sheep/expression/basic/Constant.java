@@ -1,8 +1,8 @@
 package sheep.expression.basic;
 
+import sheep.expression.EvaluationContext;
 import sheep.expression.Expression;
 
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
@@ -94,11 +94,11 @@ public class Constant extends Expression {
      * Dependencies of the constant expression.
      * Constant expressions have no dependencies.
      *
-     * @return An empty set to represent no dependencies.
+     * @return An empty, unmodifiable set to represent no dependencies.
      */
     @Override
     public Set<String> dependencies() {
-        return new HashSet<>();
+        return Set.of();
     }
 
     /**
@@ -115,6 +115,18 @@ public class Constant extends Expression {
         return this;
     }
 
+    /**
+     * The result of evaluating this expression within an evaluation context.
+     * The context is never consulted, so this returns itself.
+     *
+     * @param context The identifiers resolvable during evaluation.
+     * @return Itself.
+     */
+    @Override
+    public Expression value(EvaluationContext context) {
+        return this;
+    }
+
     /**
      * Evaluate the expression to a numeric value.
      * For constants, this is the long value stored.
@@ -131,6 +143,11 @@ public class Constant extends Expression {
         return number;
     }
 
+    @Override
+    public long number(EvaluationContext context) {
+        return number;
+    }
+
     /**
      * The string representation of an expression when rendered within a cell.
      * For constants, this is the number as a string.
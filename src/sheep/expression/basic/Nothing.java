@@ -1,9 +1,9 @@
 package sheep.expression.basic;
 
+import sheep.expression.EvaluationContext;
 import sheep.expression.Expression;
 import sheep.expression.TypeError;
 
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -16,11 +16,11 @@ public class Nothing extends Expression {
      * Dependencies of the empty expression.
      * Empty expressions have no dependencies.
      *
-     * @return An empty set to represent no dependencies.
+     * @return An empty, unmodifiable set to represent no dependencies.
      */
     @Override
     public Set<String> dependencies() {
-        return new HashSet<>();
+        return Set.of();
     }
 
     /**
@@ -37,6 +37,18 @@ public class Nothing extends Expression {
         return this;
     }
 
+    /**
+     * The result of evaluating this expression within an evaluation context.
+     * The context is never consulted, so this returns itself.
+     *
+     * @param context The identifiers resolvable during evaluation.
+     * @return Itself.
+     */
+    @Override
+    public Expression value(EvaluationContext context) {
+        return this;
+    }
+
     /**
      * Evaluate the expression to a numeric value.
      * For empty expressions, a type error will always be thrown.
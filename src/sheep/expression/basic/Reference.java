@@ -1,5 +1,6 @@
 package sheep.expression.basic;
 
+import sheep.expression.EvaluationContext;
 import sheep.expression.Expression;
 import sheep.expression.TypeError;
 
@@ -12,6 +13,7 @@ import java.util.*;
  */
 public class Reference extends Expression {
     private final String identifier;
+    private final Set<String> dependencies;
 
     /**
      * Construct a new reference to an identifier.
@@ -22,6 +24,7 @@ public class Reference extends Expression {
      */
     public Reference(String identifier) {
         this.identifier = identifier;
+        this.dependencies = Set.of(identifier);
     }
 
     /**
@@ -90,13 +93,11 @@ public class Reference extends Expression {
      * Dependencies of the reference expression.
      * The dependencies of a reference are its identifier.
      *
-     * @return A set containing the references' identifier.
+     * @return An unmodifiable set containing the references' identifier.
      */
     @Override
     public Set<String> dependencies() {
-        List<String> deps = new ArrayList<>();
-        deps.add(identifier);
-        return new HashSet<>(deps);
+        return dependencies;
     }
 
     /**
@@ -111,11 +112,68 @@ public class Reference extends Expression {
      */
     @Override
     public Expression value(Map<String, Expression> state) throws TypeError {
-        if (state.containsKey(identifier)) {
-            Expression value = state.get(identifier);
-            return value.value(state);
+        return value(EvaluationContext.of(state));
+    }
+
+    /**
+     * The result of evaluating this expression within an evaluation context.
+     * <p>
+     * If the context does not bind this reference's identifier, return {@code this}.
+     * Otherwise, return the result of calling {@link Expression#value(EvaluationContext)}
+     * on the bound expression.
+     *
+     * @param context The identifiers resolvable during evaluation.
+     * @return The result of evaluating this expression.
+     * @throws TypeError If the bound expression has a type error,
+     *                   or is a chain of references leading back to this identifier.
+     */
+    @Override
+    public Expression value(EvaluationContext context) throws TypeError {
+        Expression value = resolve(context);
+        if (value instanceof Reference) {
+            return value;
+        }
+        return value.value(context);
+    }
+
+    /*
+     * The expression bound to this reference, following any references it is bound to.
+     * The chain is followed in a loop, so long chains cannot overflow the call stack.
+     * If the chain ends at an unbound identifier, the reference to it is returned.
+     */
+    private Expression resolve(EvaluationContext context) throws TypeError {
+        Expression resolved = this;
+        Expression value = context.lookup(identifier);
+        Set<String> seen = null;
+        while (value instanceof Reference reference) {
+            if (seen == null) {
+                seen = new HashSet<>();
+                seen.add(identifier);
+            }
+            if (!seen.add(reference.identifier)) {
+                throw new TypeError();
+            }
+            resolved = reference;
+            value = context.lookup(reference.identifier);
+        }
+        return value != null ? value : resolved;
+    }
+
+    /**
+     * The numeric value of the expression bound to this reference's identifier.
+     *
+     * @param context The identifiers resolvable during evaluation.
+     * @return The numeric value of the bound expression.
+     * @throws TypeError If the identifier is not bound, as a reference has no numeric value,
+     *                   or if the bound expression does not have a numeric value.
+     */
+    @Override
+    public long number(EvaluationContext context) throws TypeError {
+        Expression value = resolve(context);
+        if (value instanceof Reference) {
+            throw new TypeError();
         }
-        return this;
+        return value.number(context);
     }
 
     /**
@@ -1,8 +1,12 @@
 package sheep.fun;
 
+import sheep.core.CellEdit;
 import sheep.core.SheetUpdate;
 import sheep.core.UpdateResponse;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * @provided
  */
@@ -15,15 +19,19 @@ public class Fibonacci implements Fun {
 
     @Override
     public void draw(SheetUpdate sheet) throws FunException {
-        sheet.update(0, 0, "0");
-        sheet.update(1, 0, "1");
-        sheet.update(2, 0, "1");
+        List<CellEdit> edits = new ArrayList<>();
+        edits.add(new CellEdit(0, 0, "0"));
+        edits.add(new CellEdit(1, 0, "1"));
+        edits.add(new CellEdit(2, 0, "1"));
 
         for (int i = 3; i < rows; i++) {
             String minus2 = "A" + (i - 2);
             String minus1 = "A" + (i - 1);
 
-            UpdateResponse response = sheet.update(i, 0, minus1 + " + " + minus2);
+            edits.add(new CellEdit(i, 0, minus1 + " + " + minus2));
+        }
+
+        for (UpdateResponse response : sheet.updateAll(edits)) {
             if (!response.isSuccess()) {
                 throw new FunException(response.getMessage());
             }
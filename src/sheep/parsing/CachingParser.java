@@ -0,0 +1,111 @@
+package sheep.parsing;
+
+import sheep.expression.Expression;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Parser that remembers the expressions parsed by another parser.
+ * <p>
+ * Parsing the same input again returns the same expression instance,
+ * so repeated formulas share a single expression tree.
+ * This is safe as expressions are immutable.
+ * At most a fixed number of inputs are remembered,
+ * discarding the least recently used input first.
+ * Inputs that fail to parse are not remembered.
+ * <p>
+ * A caching parser may be used by multiple threads at once,
+ * provided the parser it wraps may be.
+ */
+public class CachingParser implements Parser {
+    private final Parser parser;
+    private final int capacity;
+    private final Map<String, Expression> cache;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Construct a new parser remembering the results of another parser.
+     *
+     * @param parser   Parser used to parse inputs that are not remembered.
+     * @param capacity The maximum number of inputs to remember.
+     * @requires capacity &gt; 0
+     */
+    public CachingParser(Parser parser, int capacity) {
+        this.parser = parser;
+        this.capacity = capacity;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Expression> eldest) {
+                return size() > CachingParser.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Attempt to parse a string expression into an expression,
+     * returning the remembered expression if the same string was parsed before.
+     *
+     * <pre>
+     * {@code
+     * Parser parser = new CachingParser(new SimpleParser(new CoreFactory()), 100);
+     * parser.parse("A1 + 1") == parser.parse("A1 + 1"); // true
+     * }</pre>
+     *
+     * @param input A string to attempt to parse.
+     * @return The result of parsing the expression.
+     * @throws ParseException If the string input is not recognisable as an expression.
+     */
+    @Override
+    public Expression parse(String input) throws ParseException {
+        Expression expression;
+        synchronized (cache) {
+            expression = cache.get(input);
+        }
+        if (expression != null) {
+            hits.increment();
+            return expression;
+        }
+
+        // parse outside the lock, so that different inputs are parsed concurrently
+        misses.increment();
+        Expression parsed = parser.parse(input);
+        synchronized (cache) {
+            // another thread may have parsed the same input, share its expression
+            expression = cache.putIfAbsent(input, parsed);
+        }
+        return expression != null ? expression : parsed;
+    }
+
+    /**
+     * The number of inputs that were parsed by returning a remembered expression.
+     *
+     * @return The number of cache hits.
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * The number of inputs that were given to the wrapped parser,
+     * including those that failed to parse.
+     *
+     * @return The number of cache misses.
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * The number of inputs currently remembered.
+     *
+     * @return The size of the cache.
+     */
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+}
@@ -4,8 +4,8 @@ import sheep.expression.Expression;
 import sheep.expression.ExpressionFactory;
 import sheep.expression.InvalidExpression;
 
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
 
 /**
@@ -31,18 +31,18 @@ public class ComplexParser implements Parser {
      * [5] Single version of token parser inspires by SimpleParser.
      * [7] yield statement inspired from top comment.
      */
-    private Expression tryParseToken(ComplexScanner.Token token) throws ParseException,
-            InvalidExpression {
+    private Expression tryParseToken(CharSequence input, ComplexScanner.Span token)
+            throws ParseException, InvalidExpression {
         return switch (token.type()) {
-            case OP -> factory.createOperator(token.name(),
+            case OP -> factory.createOperator(token.name(input),
                     new Expression[]{factory.createEmpty()});
-            case REFERENCE -> factory.createReference(token.name());
-            case CONST -> factory.createConstant(Long.parseLong(token.name()));
+            case REFERENCE -> factory.createReference(token.name(input));
+            case CONST -> factory.createConstant(token.value(input));
             case FUNC -> {
-                if (token.contents() != null && !token.contents().isEmpty()) {
-                    yield factory.createOperator(token.name(), new Expression[]{splitTokens(
-                            ComplexScanner.tokenize(token.contents())
-                    )});
+                if (token.hasContents(input)) {
+                    yield factory.createOperator(token.name(input), new Expression[]{
+                            parseContents(input, token)
+                    });
                 } else {
                     yield factory.createOperator("", new Expression[]{factory.createEmpty()});
                 }
@@ -51,40 +51,70 @@ public class ComplexParser implements Parser {
     }
 
     /*
-     * Splits a list of tokens on operators (or functions)
-     * similar to how SimpleParser splits strings.
+     * The contents of a function are tokenized in place, without copying them.
      */
-    private Expression splitTokens(List<ComplexScanner.Token> tokens) throws ParseException,
-            InvalidExpression {
-        if (tokens.isEmpty()) {
-            return factory.createEmpty();
-        }
-
-        if (tokens.size() == 1) {
-            return tryParseToken(tokens.getFirst());
-        }
-
-        for (int i = 0; i < tokens.size(); i++) {
-            var token = tokens.get(i);
+    private Expression parseContents(CharSequence input, ComplexScanner.Span token)
+            throws ParseException, InvalidExpression {
+        return splitTokens(input, ComplexScanner.scan(input, token.open() + 1, token.end()));
+    }
 
-            // Split on each operator, similarly to SimpleParser.
-            if (token.type() == ComplexScanner.TokenType.OP) {
-                var firstHalf  = tokens.subList(0, i);
-                var secondHalf = tokens.subList(i + 1, tokens.size());
-                var firstHalfExpression = splitTokens(firstHalf);
-                var secondHalfExpression = splitTokens(secondHalf);
-                return factory.createOperator(token.name(),
-                        new Expression[]{firstHalfExpression, secondHalfExpression});
+    /*
+     * Parses a list of tokens in a single left-to-right pass, without recursing on each operator.
+     * As when the tokens were split recursively, every operator has the same precedence
+     * and associates to the right, and operators are not flattened:
+     * the tokens before the first operator are its left operand
+     * and the tokens after it are parsed the same way as its right operand,
+     * e.g. a + b * c is +(a, *(b, c)) and a / b / c is /(a, /(b, c)).
+     * A function before the first operator stands for the whole list.
+     * The pending operators are kept on a stack rather than the call stack,
+     * so long formulas cannot overflow it.
+     */
+    private Expression splitTokens(CharSequence input, List<ComplexScanner.Span> tokens)
+            throws ParseException, InvalidExpression {
+        Deque<Expression> operands = new ArrayDeque<>();
+        Deque<ComplexScanner.Span> operators = new ArrayDeque<>();
+        int from = 0;
+        Expression last = null;
+        while (last == null) {
+            if (tokens.size() - from <= 1) {
+                last = operand(input, tokens, from, tokens.size());
+                break;
             }
-
-            // Also split functions according to the javadocs.
+            int split = from;
+            while (split < tokens.size() && tokens.get(split).type() != ComplexScanner.TokenType.OP
+                    && tokens.get(split).type() != ComplexScanner.TokenType.FUNC) {
+                split++;
+            }
+            if (split == tokens.size()) {
+                throw new ParseException("Could not parse tokens");
+            }
+            var token = tokens.get(split);
             if (token.type() == ComplexScanner.TokenType.FUNC) {
-                var content = ComplexScanner.tokenize(token.contents());
-                var expression = splitTokens(content);
-                return factory.createOperator(token.name(), new Expression[]{expression});
+                last = factory.createOperator(token.name(input),
+                        new Expression[]{parseContents(input, token)});
+            } else {
+                operands.push(operand(input, tokens, from, split));
+                operators.push(token);
+                from = split + 1;
             }
         }
-        throw new ParseException("Could not parse tokens");
+        while (!operators.isEmpty()) {
+            last = factory.createOperator(operators.pop().name(input),
+                    new Expression[]{operands.pop(), last});
+        }
+        return last;
+    }
+
+    /*
+     * Parses the tokens between the offsets as one operand, which is at most one token.
+     */
+    private Expression operand(CharSequence input, List<ComplexScanner.Span> tokens,
+                               int from, int to) throws ParseException, InvalidExpression {
+        return switch (to - from) {
+            case 0 -> factory.createEmpty();
+            case 1 -> tryParseToken(input, tokens.get(from));
+            default -> throw new ParseException("Could not parse tokens");
+        };
     }
 
     /**
@@ -113,7 +143,7 @@ public class ComplexParser implements Parser {
     @Override
     public Expression parse(String input) throws ParseException {
         try {
-            return splitTokens(ComplexScanner.tokenize(input));
+            return splitTokens(input, ComplexScanner.scan(input, 0, input.length()));
         } catch (InvalidExpression e) {
             throw new ParseException(e);
         }
@@ -23,6 +23,42 @@ public class ComplexScanner {
             ',', '=', '<', '+', '-', '*', '/'
     );
 
+    /**
+     * Character classes of the ASCII characters, indexed by character.
+     */
+    private static final byte[] CLASSES = new byte[128];
+    private static final byte OTHER = 0;
+    private static final byte WHITESPACE = 1;
+    private static final byte DIGIT = 2;
+    private static final byte OPERATOR = 3;
+    private static final byte OPEN = 4;
+    private static final byte CLOSE = 5;
+
+    static {
+        for (char c = 0; c < CLASSES.length; c++) {
+            if (Character.isWhitespace(c)) {
+                CLASSES[c] = WHITESPACE;
+            } else if (Character.isDigit(c)) {
+                CLASSES[c] = DIGIT;
+            }
+        }
+        for (char operator : OPERATORS) {
+            CLASSES[operator] = OPERATOR;
+        }
+        CLASSES['('] = OPEN;
+        CLASSES[')'] = CLOSE;
+    }
+
+    private static byte classify(char c) {
+        if (c < CLASSES.length) {
+            return CLASSES[c];
+        }
+        if (Character.isWhitespace(c)) {
+            return WHITESPACE;
+        }
+        return Character.isDigit(c) ? DIGIT : OTHER;
+    }
+
     /**
      * Tokenize a string into a list of operator, reference, constant, and function tokens.
      * Only the "bottom" layer of the string is tokenized,
@@ -33,47 +69,124 @@ public class ComplexScanner {
      * @throws ParseException if there are unmatched parentheses.
      */
     public static List<Token> tokenize(String input) throws ParseException {
-        TokenBuilder tokenBuilder = new TokenBuilder();
+        List<Token> tokens = new ArrayList<>();
+        for (Span span : scan(input, 0, input.length())) {
+            tokens.add(span.toToken(input));
+        }
+        return tokens;
+    }
+
+    /**
+     * Tokenize part of a sequence of characters as {@link #tokenize(String)} does,
+     * locating each token by its offsets rather than copying its text.
+     *
+     * @param input the characters to tokenize.
+     * @param from  the offset of the first character to tokenize.
+     * @param to    the offset after the last character to tokenize.
+     * @return The list of tokens found in order.
+     * @throws ParseException if there are unmatched parentheses.
+     */
+    static List<Span> scan(CharSequence input, int from, int to) throws ParseException {
+        SpanBuilder builder = new SpanBuilder();
         int level = 0;
 
-        for (var c : input.toCharArray()) {
-            if (c == '(') {
+        for (int i = from; i < to; i++) {
+            char c = input.charAt(i);
+            byte type = classify(c);
+            if (type == OPEN) {
                 level++;
             }
 
-            if (c == ')') {
+            if (type == CLOSE) {
                 level--;
 
                 // handle closed parenthesis with no open
                 if (level < 0) {
-                    throw new ParseException("Unmatched \")\" in \"" + input + "\"");
+                    throw new ParseException("Unmatched \")\" in \""
+                            + input.subSequence(from, to) + "\"");
                 }
 
                 if (level == 0) {
                     // When we reach the base level the function has ended
-                    tokenBuilder.finishToken();
+                    builder.finish(input, i);
                     continue;
                 }
             }
 
             // If we're an operator unenclosed in parentheses
-            if ((level == 0) && OPERATORS.contains(c)) {
-                tokenBuilder.finishToken();
-                tokenBuilder.append(c);
-                tokenBuilder.finishToken();
+            if (level == 0 && type == OPERATOR) {
+                builder.finish(input, i);
+                builder.append(i, type);
+                builder.finish(input, i + 1);
                 continue;
             }
 
-            tokenBuilder.append(c);
+            builder.append(i, type);
         }
 
         if (level != 0) {
-            throw new ParseException("Unmatched \"(\" in \"" + input + "\"");
+            throw new ParseException("Unmatched \"(\" in \"" + input.subSequence(from, to) + "\"");
         }
 
-        tokenBuilder.finishToken();
+        builder.finish(input, to);
+
+        return builder.spans;
+    }
+
+    /**
+     * Whether the characters, in their entirety, can be parsed by {@link Long#parseLong(String)},
+     * determined without the cost of a {@link NumberFormatException}.
+     *
+     * @param input the characters to check.
+     * @param start the offset of the first character to check.
+     * @param end   the offset after the last character to check.
+     * @return True iff {@code Long.parseLong(input.subSequence(start, end).toString())}
+     *         would succeed.
+     */
+    static boolean isLong(CharSequence input, int start, int end) {
+        int index = start;
+        boolean negative = false;
+        if (index < end && (input.charAt(index) == '-' || input.charAt(index) == '+')) {
+            negative = input.charAt(index) == '-';
+            index++;
+        }
+        if (index == end) {
+            return false;
+        }
+        // accumulate negatively, as Long.parseLong does, since the negative range is larger
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long result = 0;
+        for (; index < end; index++) {
+            int digit = Character.digit(input.charAt(index), 10);
+            if (digit < 0 || result < limit / 10) {
+                return false;
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                return false;
+            }
+            result -= digit;
+        }
+        return true;
+    }
 
-        return tokenBuilder.getList();
+    /**
+     * The characters of the input between the offsets, with whitespace removed.
+     */
+    private static String compact(CharSequence input, int start, int end) {
+        StringBuilder builder = null;
+        for (int i = start; i < end; i++) {
+            char c = input.charAt(i);
+            if (classify(c) == WHITESPACE) {
+                if (builder == null) {
+                    builder = new StringBuilder(end - start);
+                    builder.append(input, start, i);
+                }
+            } else if (builder != null) {
+                builder.append(c);
+            }
+        }
+        return builder == null ? input.subSequence(start, end).toString() : builder.toString();
     }
 
     /**
@@ -116,88 +229,132 @@ public class ComplexScanner {
     }
 
     /**
-     * A class that helps build a list of Tokens while ignoring whitespace and empty tokens.
+     * A token located by offsets into the characters it was scanned from.
+     * The text of the token is the characters between {@code start} and {@code end}
+     * with whitespace removed.
+     *
+     * @param type       The token's type.
+     * @param start      The offset of the token's first character.
+     * @param end        The offset after the token's last character,
+     *                   for functions the offset of the closing parenthesis.
+     * @param open       The offset of a function's opening parenthesis, otherwise -1.
+     * @param contiguous Whether the token contains no whitespace.
      */
-    private static class TokenBuilder {
-        private final StringBuilder builder = new StringBuilder();
-        private final List<Token> list = new ArrayList<>();
-
+    record Span(TokenType type, int start, int end, int open, boolean contiguous) {
         /**
-         * Converts a string to a single token
-         * <p>
-         * Strings with parentheses are tokenized as FUNCs
-         * Any string before the open parenthesis is treated as the name,
-         * Any string between the open parenthesis and it's matching close parenthesis is treated as the contents.
-         * </p>
-         * <p>
-         * Characters in the list of valid operators are tokenized alone as OPs with the character as the name.
-         * </p>
-         * <p>
-         * Strings that can be parsed as a Long are tokenized as CONSTs with a name equal to the string.
-         * </p>
-         * <p>
-         * All other strings are treated as REFERENCEs with name equal to the whole string.
-         * </p>
-         * Token types without contents have null as the contents.
-         * <p>
-         * Examples:
-         * "Name(Contents)" is parsed as a FUNC with name: "Name" and contents "Contents"
-         * "()" is parsed as a FUNC with name: "" and contents: ""
-         * "+" is parsed as an OP with name: "+" and contents: null
-         * "0" is parsed as an CONST with name: "0" and contents: null
-         * </p>
+         * The name of the token, as given by {@link Token#name()}.
          *
-         * @param input the string to parse.
-         * @return The token represented by the input.
-         * @requires the string to only contain 1 token
+         * @param input the characters the token was scanned from.
+         * @return the token's name.
          */
-        private static Token toToken(String input) {
-            input = input.trim();
-            if (OPERATORS.contains(input.charAt(0))) {
-                return new Token(TokenType.OP, input);
-            }
+        String name(CharSequence input) {
+            return compact(input, start, open < 0 ? end : open);
+        }
 
-            if (input.contains("(")) {
-                String[] parts = input.split("\\(", 2);
-                return new Token(TokenType.FUNC, parts[0], parts[1]);
-            }
-            try {
-                Long.parseLong(input);
-                return new Token(TokenType.CONST, input);
-            } catch (NumberFormatException nfe) {
-                return new Token(TokenType.REFERENCE, input);
+        /**
+         * The value of a constant token.
+         *
+         * @param input the characters the token was scanned from.
+         * @return the token's value.
+         * @requires type == TokenType.CONST
+         */
+        long value(CharSequence input) {
+            if (contiguous) {
+                return Long.parseLong(input, start, end, 10);
             }
+            return Long.parseLong(name(input));
         }
 
         /**
-         * Add a character to the buffer
+         * Whether a function token has any non-whitespace contents.
          *
-         * @param c The character to add
+         * @param input the characters the token was scanned from.
+         * @return true iff the contents given by {@link Token#contents()} are non-empty.
          */
-        public void append(char c) {
-            if (!Character.isWhitespace(c)) {
-                builder.append(c);
+        boolean hasContents(CharSequence input) {
+            for (int i = open + 1; i < end; i++) {
+                if (classify(input.charAt(i)) != WHITESPACE) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private Token toToken(CharSequence input) {
+            if (type == TokenType.FUNC) {
+                return new Token(type, name(input), compact(input, open + 1, end));
             }
+            return new Token(type, name(input));
         }
+    }
+
+    /**
+     * A class that helps build a list of Spans while ignoring whitespace and empty tokens.
+     */
+    private static class SpanBuilder {
+        private final List<Span> spans = new ArrayList<>();
+        private int start = -1;
+        private int last;
+        private int length;
+        private int open;
+        private boolean digits;
+        private boolean operator;
 
         /**
-         * Parse the buffer as a token and
-         * add it to the list of finalised tokens
+         * Add the character at an offset to the current token,
+         * unless it is whitespace.
+         *
+         * @param index The offset of the character.
+         * @param type  The class of the character.
          */
-        public void finishToken() {
-            if (!builder.isEmpty()) {
-                list.add(toToken(builder.toString()));
-                builder.setLength(0);
+        private void append(int index, byte type) {
+            if (type == WHITESPACE) {
+                return;
+            }
+            if (start < 0) {
+                start = index;
+                open = -1;
+                digits = true;
+                operator = type == OPERATOR;
+                length = 0;
             }
+            if (type == OPEN && open < 0) {
+                open = index;
+            }
+            digits &= type == DIGIT;
+            last = index;
+            length++;
         }
 
         /**
-         * Get all finalised tokens.
+         * Classify the current token, if any, and add it to the list of finished tokens.
+         * <p>
+         * Tokens starting with an operator are OPs, tokens with parentheses are FUNCs,
+         * tokens that can be parsed as a Long are CONSTs, and all others are REFERENCEs.
          *
-         * @return A list of all parsed tokens
+         * @param input The characters being scanned.
+         * @param end   The offset after the current token, excluding any closing parenthesis.
          */
-        public List<Token> getList() {
-            return new ArrayList<>(list);
+        private void finish(CharSequence input, int end) {
+            if (start < 0) {
+                return;
+            }
+            boolean contiguous = length == last + 1 - start;
+            TokenType type;
+            if (operator) {
+                type = TokenType.OP;
+                end = last + 1;
+            } else if (open >= 0) {
+                type = TokenType.FUNC;
+            } else {
+                end = last + 1;
+                boolean isLong = digits && (contiguous
+                        ? isLong(input, start, end)
+                        : isLong(compact(input, start, end), 0, length));
+                type = isLong ? TokenType.CONST : TokenType.REFERENCE;
+            }
+            spans.add(new Span(type, start, end, open, contiguous));
+            start = -1;
         }
     }
 }
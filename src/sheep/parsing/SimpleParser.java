@@ -4,11 +4,28 @@ import sheep.expression.Expression;
 import sheep.expression.ExpressionFactory;
 import sheep.expression.InvalidExpression;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Parser of basic expressions and arithmetic expressions.
+ * <p>
+ * The input is parsed by precedence climbing in a single left-to-right pass,
+ * rather than by splitting it on each operator and parsing the pieces again,
+ * so parsing takes time linear in the length of the input.
  * @ass1
  */
 public class SimpleParser implements Parser {
+    /**
+     * The arithmetic operators, from lowest to highest precedence.
+     */
+    private static final String OPERATORS = "=<+-*/";
+
+    /**
+     * The precedence level of operands that contain no operators.
+     */
+    private static final int ATOM = OPERATORS.length();
+
     private final ExpressionFactory factory;
 
     /**
@@ -21,48 +38,6 @@ public class SimpleParser implements Parser {
         this.factory = factory;
     }
 
-    private Expression[] tryParse(String[] inputs) throws ParseException, InvalidExpression {
-        Expression[] expressions = new Expression[inputs.length];
-        for (int i = 0; i < inputs.length; i++) {
-            expressions[i] = tryParse(inputs[i]);
-        }
-        return expressions;
-    }
-
-    private Expression tryParse(String input) throws ParseException, InvalidExpression {
-        input = input.strip();
-        try {
-            long number = Long.parseLong(input);
-            return factory.createConstant(number);
-        } catch (NumberFormatException ignored) {
-            // ignore unable to parse
-        }
-
-        if (input.contains("=")) {
-            return factory.createOperator("=", tryParse(input.split("=")));
-        } else if (input.contains("<")) {
-            return factory.createOperator("<", tryParse(input.split("<")));
-        } else if (input.contains("+")) {
-            return factory.createOperator("+", tryParse(input.split("\\+")));
-        } else if (input.contains("-")) {
-            return factory.createOperator("-", tryParse(input.split("-")));
-        } else if (input.contains("*")) {
-            return factory.createOperator("*", tryParse(input.split("\\*")));
-        } else if (input.contains("/")) {
-            return factory.createOperator("/", tryParse(input.split("/")));
-        }
-
-        for (char character : input.toCharArray()) {
-            if (!(Character.isAlphabetic(character) || Character.isDigit(character))) {
-                throw new ParseException("Unknown input: " + input);
-            }
-        }
-        if (input.isEmpty()) {
-            return factory.createEmpty();
-        }
-        return factory.createReference(input);
-    }
-
     /**
      * Attempt to parse a string expression into an expression.
      * <ul>
@@ -120,9 +95,180 @@ public class SimpleParser implements Parser {
     @Override
     public Expression parse(String input) throws ParseException {
         try {
-            return tryParse(input);
+            return new Pass(input).operand(0);
         } catch (InvalidExpression e) {
             throw new ParseException(e);
         }
     }
+
+    /**
+     * The precedence level of a character, or {@link #ATOM} if it is not an operator.
+     */
+    private static int level(char character) {
+        int level = OPERATORS.indexOf(character);
+        return level < 0 ? ATOM : level;
+    }
+
+    /**
+     * The state of parsing a single input.
+     * <p>
+     * An operand of level {@code n} extends up to the next operator
+     * with a level below {@code n}, or the end of the input.
+     * This is exactly the string produced for the operand
+     * by splitting the input on each lower level operator in turn.
+     */
+    private class Pass {
+        private final String input;
+        private int position = 0;
+
+        private Pass(String input) {
+            this.input = input;
+        }
+
+        /**
+         * Whether the position is at the end of an operand of the given level.
+         */
+        private boolean atEnd(int index, int level) {
+            return index == input.length() || level(input.charAt(index)) < level;
+        }
+
+        private int skipWhitespace(int index) {
+            while (index < input.length() && Character.isWhitespace(input.charAt(index))) {
+                index++;
+            }
+            return index;
+        }
+
+        /**
+         * Parse the operand of the given level starting at the current position.
+         * An operand that is a number is a constant, even if its sign is an operator.
+         */
+        private Expression operand(int level) throws ParseException, InvalidExpression {
+            Expression constant = constant(level);
+            if (constant != null) {
+                return constant;
+            }
+            return level == ATOM ? atom() : operation(level);
+        }
+
+        /**
+         * Parse the operand as a constant if it is a number,
+         * otherwise leave the position unchanged and return null.
+         */
+        private Expression constant(int level) {
+            int start = skipWhitespace(position);
+            int index = start;
+            if (index < input.length() && level(input.charAt(index)) >= level
+                    && (input.charAt(index) == '-' || input.charAt(index) == '+')) {
+                index++;
+            }
+            int digits = index;
+            while (index < input.length() && Character.isDigit(input.charAt(index))) {
+                index++;
+            }
+            if (index == digits) {
+                return null;
+            }
+            int end = index;
+            index = skipWhitespace(index);
+            if (!atEnd(index, level)) {
+                return null;
+            }
+            if (!ComplexScanner.isLong(input, start, end)) {
+                // too large for a long, so parsed as a reference
+                return null;
+            }
+            position = index;
+            return factory.createConstant(Long.parseLong(input, start, end, 10));
+        }
+
+        /**
+         * Parse an operand with no operators as an empty expression or a reference.
+         */
+        private Expression atom() throws ParseException {
+            int start = position;
+            while (!atEnd(position, ATOM)) {
+                position++;
+            }
+            String text = input.substring(start, position).strip();
+            for (int i = 0; i < text.length(); i++) {
+                char character = text.charAt(i);
+                if (!(Character.isAlphabetic(character) || Character.isDigit(character))) {
+                    throw new ParseException("Unknown input: " + text);
+                }
+            }
+            if (text.isEmpty()) {
+                return factory.createEmpty();
+            }
+            return factory.createReference(text);
+        }
+
+        /**
+         * Parse an operand of the given level as a sequence of higher level operands
+         * joined by the operator of this level.
+         * If the operator does not occur, the single higher level operand is returned.
+         */
+        private Expression operation(int level) throws ParseException, InvalidExpression {
+            char operator = OPERATORS.charAt(level);
+            String name = String.valueOf(operator);
+
+            // the operand is stripped before it is split, so leading whitespace
+            // is dropped along with any trailing empty operands
+            int first = skipWhitespace(position);
+            if (first < input.length() && input.charAt(first) == operator
+                    && trailing(first, level, operator) < 0) {
+                position = skipToEnd(level);
+                return factory.createOperator(name, new Expression[0]);
+            }
+
+            Expression operand = operand(level + 1);
+            if (atEnd(position, level)) {
+                return operand;
+            }
+
+            List<Expression> operands = new ArrayList<>();
+            operands.add(operand);
+            // every position before this one is known to be followed by a non-empty operand,
+            // so runs of empty operands are only scanned once
+            int nonEmpty = -1;
+            while (!atEnd(position, level)) {
+                // the operand has ended at an operator of this level
+                position++;
+                if (position > nonEmpty) {
+                    nonEmpty = trailing(position, level, operator);
+                    if (nonEmpty < 0) {
+                        position = skipToEnd(level);
+                        break;
+                    }
+                }
+                operands.add(operand(level + 1));
+            }
+            return factory.createOperator(name, operands.toArray(new Expression[0]));
+        }
+
+        /**
+         * Find whether the rest of the operand from the index consists of only
+         * further operators and trailing whitespace,
+         * that is, whether every remaining sub-operand is empty after stripping.
+         * {@link String#split(String)} discards such trailing empty strings.
+         *
+         * @return -1 if the rest of the operand is empty,
+         *         otherwise the index of its first non-empty character.
+         */
+        private int trailing(int index, int level, char operator) {
+            while (index < input.length() && input.charAt(index) == operator) {
+                index++;
+            }
+            index = skipWhitespace(index);
+            return atEnd(index, level) ? -1 : index;
+        }
+
+        private int skipToEnd(int level) {
+            int index = position;
+            while (!atEnd(index, level)) {
+                index++;
+            }
+            return index;
+        }
+    }
 }
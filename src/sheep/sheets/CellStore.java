@@ -0,0 +1,101 @@
+package sheep.sheets;
+
+import sheep.expression.Expression;
+
+import java.util.Set;
+
+/**
+ * Storage of the per-cell state of a {@link Sheet}.
+ * <p>
+ * Cells are addressed by their index, row * columns + column.
+ * A cell that was never written holds null for all of its state,
+ * which the sheet interprets as the default expression and no usages.
+ */
+interface CellStore {
+    /**
+     * The formula stored at the cell index.
+     *
+     * @param index The index of a cell.
+     * @return The formula at the index, or null if the cell holds the default.
+     */
+    Expression formula(int index);
+
+    /**
+     * Replace the formula stored at the cell index.
+     *
+     * @param index   The index of a cell.
+     * @param formula The new formula, or null to reset the cell to the default.
+     */
+    void setFormula(int index, Expression formula);
+
+    /**
+     * The value stored at the cell index.
+     *
+     * @param index The index of a cell.
+     * @return The value at the index, or null if the cell holds the default.
+     */
+    Expression value(int index);
+
+    /**
+     * Replace the value stored at the cell index.
+     *
+     * @param index The index of a cell.
+     * @param value The new value, or null to reset the cell to the default.
+     */
+    void setValue(int index, Expression value);
+
+    /**
+     * The cells that directly use the cell at the index.
+     *
+     * @param index The index of a cell.
+     * @return The indices of the cells using the cell, or null if there are none.
+     */
+    Set<Integer> usages(int index);
+
+    /**
+     * Replace the cells that directly use the cell at the index.
+     *
+     * @param index  The index of a cell.
+     * @param usages The indices of the cells using the cell, or null if there are none.
+     */
+    void setUsages(int index, Set<Integer> usages);
+
+    /**
+     * The height of the cell at the index, which the sheet keeps above
+     * the heights of every cell the cell depends on.
+     *
+     * @param index The index of a cell.
+     * @return The height of the cell, or 0 if it was never set.
+     */
+    int height(int index);
+
+    /**
+     * Replace the height of the cell at the index.
+     *
+     * @param index  The index of a cell.
+     * @param height The new height of the cell.
+     * @requires height &gt;= 0
+     */
+    void setHeight(int index, int height);
+
+    /**
+     * The indices of every cell that holds a formula other than the default.
+     *
+     * @return The indices of the cells with a formula in ascending order.
+     */
+    int[] formulaIndices();
+
+    /**
+     * The indices of every cell that holds a value other than the default.
+     *
+     * @return The indices of the cells with a value in ascending order.
+     */
+    int[] valueIndices();
+
+    /**
+     * The indices of every cell that is used by at least one other cell.
+     *
+     * @return The indices of the cells with usages in ascending order.
+     */
+    int[] usageIndices();
+}
@@ -0,0 +1,97 @@
+package sheep.sheets;
+
+import sheep.expression.Expression;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Cell storage backed by flat arrays with a slot for every cell.
+ * Suited to sheets where most cells are filled.
+ */
+class DenseCellStore implements CellStore {
+    private final Expression[] formulas;
+    private final Expression[] values;
+    private final Set<Integer>[] usages;
+    private final int[] heights;
+
+    /**
+     * Construct storage for the given number of cells.
+     *
+     * @param size The number of cells, i.e. rows * columns.
+     * @requires size &gt;= 0
+     */
+    @SuppressWarnings("unchecked")
+    DenseCellStore(int size) {
+        this.formulas = new Expression[size];
+        this.values = new Expression[size];
+        this.usages = (Set<Integer>[]) new Set<?>[size];
+        this.heights = new int[size];
+    }
+
+    @Override
+    public Expression formula(int index) {
+        return formulas[index];
+    }
+
+    @Override
+    public void setFormula(int index, Expression formula) {
+        formulas[index] = formula;
+    }
+
+    @Override
+    public Expression value(int index) {
+        return values[index];
+    }
+
+    @Override
+    public void setValue(int index, Expression value) {
+        values[index] = value;
+    }
+
+    @Override
+    public Set<Integer> usages(int index) {
+        return usages[index];
+    }
+
+    @Override
+    public void setUsages(int index, Set<Integer> usages) {
+        this.usages[index] = usages;
+    }
+
+    @Override
+    public int height(int index) {
+        return heights[index];
+    }
+
+    @Override
+    public void setHeight(int index, int height) {
+        heights[index] = height;
+    }
+
+    @Override
+    public int[] formulaIndices() {
+        return occupied(formulas);
+    }
+
+    @Override
+    public int[] valueIndices() {
+        return occupied(values);
+    }
+
+    @Override
+    public int[] usageIndices() {
+        return occupied(usages);
+    }
+
+    private static int[] occupied(Object[] slots) {
+        int[] indices = new int[slots.length];
+        int count = 0;
+        for (int index = 0; index < slots.length; index++) {
+            if (slots[index] != null) {
+                indices[count++] = index;
+            }
+        }
+        return Arrays.copyOf(indices, count);
+    }
+}
@@ -0,0 +1,62 @@
+package sheep.sheets;
+
+import sheep.expression.TypeError;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.StringJoiner;
+
+/**
+ * Thrown if an update would make a cell depend on its own value,
+ * through a loop of references such as A0 refers to A1 and A1 refers to A0.
+ * <p>
+ * The message lists the cells of the loop, each followed by a cell it refers to,
+ * e.g. {@code A0 -> A1 -> A0}.
+ */
+public class ReferenceLoop extends TypeError {
+    private static final long serialVersionUID = 1L;
+
+    // the cells of the loop by row and column, as cell locations are not serializable
+    private final int[] rows;
+    private final int[] columns;
+
+    /**
+     * Construct a new exception for a loop of references.
+     *
+     * @param loop The cells of the loop, each referring to the next,
+     *             and the last referring to the first.
+     * @requires loop is not empty
+     */
+    public ReferenceLoop(List<CellLocation> loop) {
+        super(describe(loop));
+        this.rows = new int[loop.size()];
+        this.columns = new int[loop.size()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = loop.get(i).getRow();
+            columns[i] = loop.get(i).getColumn();
+        }
+    }
+
+    private static String describe(List<CellLocation> loop) {
+        StringJoiner joiner = new StringJoiner(" -> ");
+        for (CellLocation location : loop) {
+            joiner.add(location.toString());
+        }
+        joiner.add(loop.get(0).toString());
+        return joiner.toString();
+    }
+
+    /**
+     * The cells of the loop, each referring to the next, and the last referring to the first.
+     *
+     * @return The cells of the loop, in the order of their references.
+     */
+    public List<CellLocation> loop() {
+        List<CellLocation> loop = new ArrayList<>(rows.length);
+        for (int i = 0; i < rows.length; i++) {
+            loop.add(new CellLocation(rows[i], columns[i]));
+        }
+        return Collections.unmodifiableList(loop);
+    }
+}
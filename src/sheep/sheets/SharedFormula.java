@@ -0,0 +1,108 @@
+package sheep.sheets;
+
+import sheep.expression.EvaluationContext;
+import sheep.expression.Expression;
+import sheep.expression.TypeError;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The formula of a cell, stored as a {@link Template} that may be shared by other cells,
+ * and the location of the cell.
+ * <p>
+ * A shared formula behaves exactly as the formula it represents,
+ * but only constructs that formula when it is asked for.
+ * Within its sheet, it is evaluated through the references bound by its template.
+ */
+final class SharedFormula extends Expression {
+    private final Template template;
+    private final int row;
+    private final int column;
+    private final int[] cells;
+
+    /**
+     * Construct the formula of the cell at the row and column from a template.
+     *
+     * @param template The template of the formula.
+     * @param row      The row of the cell.
+     * @param column   The column of the cell.
+     * @param columns  The number of columns in the sheet holding the cell.
+     */
+    SharedFormula(Template template, int row, int column, int columns) {
+        this.template = template;
+        this.row = row;
+        this.column = column;
+        this.cells = template.cells(row, column, columns);
+    }
+
+    /**
+     * The template of this formula.
+     *
+     * @return The template of this formula.
+     */
+    Template template() {
+        return template;
+    }
+
+    /**
+     * Construct the formula this represents.
+     *
+     * @return The formula of the cell.
+     */
+    Expression formula() {
+        return template.instantiate(row, column);
+    }
+
+    /**
+     * The indices of the cells this formula refers to, as given by {@link Template#cells}.
+     * The array is shared and must not be modified.
+     *
+     * @return The indices of the cells the formula depends on, in ascending order.
+     */
+    int[] cells() {
+        return cells;
+    }
+
+    @Override
+    public Set<String> dependencies() {
+        return template.dependencies(row, column);
+    }
+
+    /**
+     * The result of evaluating the formula.
+     * When evaluated within its sheet, the template is evaluated directly
+     * against the values of the cells and built-ins it is bound to.
+     *
+     * @param context The identifiers resolvable during evaluation.
+     * @return The value of the formula.
+     * @throws TypeError If the formula has a type error.
+     */
+    @Override
+    public Expression value(EvaluationContext context) throws TypeError {
+        if (context instanceof Template.CellValues cells) {
+            return template.value(row, column, context, cells);
+        }
+        return formula().value(context);
+    }
+
+    @Override
+    public Expression value(Map<String, Expression> state) throws TypeError {
+        return formula().value(state);
+    }
+
+    @Override
+    public long value() throws TypeError {
+        return formula().value();
+    }
+
+    @Override
+    public String render() {
+        return formula().render();
+    }
+
+    @Override
+    public String toString() {
+        return formula().toString();
+    }
+}
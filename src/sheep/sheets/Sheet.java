@@ -1,15 +1,22 @@
 package sheep.sheets;
 
+import sheep.core.CellEdit;
 import sheep.core.SheetUpdate;
 import sheep.core.SheetView;
 import sheep.core.UpdateResponse;
 import sheep.core.ViewElement;
+import sheep.expression.EvaluationContext;
 import sheep.expression.Expression;
 import sheep.expression.TypeError;
 import sheep.parsing.ParseException;
 import sheep.parsing.Parser;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Spreadsheet that evaluates its expressions and updates dependant cells.
@@ -23,16 +30,71 @@ import java.util.*;
  */
 public class Sheet implements SheetView, SheetUpdate {
 
-    private final Map<CellLocation, Expression> formulas = new HashMap<>();
-    private final Map<CellLocation, Expression> values = new HashMap<>();
-    private final Map<CellLocation, Set<CellLocation>> usages = new HashMap<>();
+    /*
+     * Cells are stored by their index, row * columns + column.
+     * A null formula or value is a cell still holding the default expression,
+     * and a null usage set is a cell that no other cell references.
+     */
+    private final CellStore cells;
     private final Map<String, Expression> builtins;
+    private final Map<String, Integer> slots;
+    private final Expression[] slotted;
     private final Expression defaultExpression;
     private final int rows;
     private final int columns;
 
     private final Parser parser;
 
+    private static final int[] NO_CELLS = new int[0];
+
+    /*
+     * Every cell has a height above the heights of the cells it depends on, see order(),
+     * so recalculating cells in order of height never reads an out of date value.
+     * Cells in a loop of references loaded with the sheet, and the cells depending on them,
+     * have no such height. They are tangled, and keep the default value.
+     */
+    private static final int TANGLED = Integer.MAX_VALUE;
+    private Set<Integer> tangled = Set.of();
+
+    /*
+     * Levels of at least this many cells are recalculated in parallel, when a pool is given,
+     * in tasks of at most PARALLEL_CHUNK cells.
+     */
+    private static final int PARALLEL_THRESHOLD = 64;
+    private static final int PARALLEL_CHUNK = 32;
+
+    private ForkJoinPool recalculationPool;
+    private boolean lazyRecalculation;
+
+    /*
+     * Loaded sheets may defer parsing and evaluation, see defer(List).
+     * The sources hold the original text of each loaded cell until an update of the cell commits.
+     * Loaded cells not yet parsed are unparsed, those not yet evaluated are stale,
+     * and those that could not be evaluated are broken.
+     * These are null unless some loaded cells are yet to be evaluated,
+     * or the sheet recalculates lazily, when updated cells and their usages are also stale.
+     * Every usage of a stale cell is stale.
+     */
+    private List<String[]> sources;
+    private BitSet unparsed;
+    private BitSet stale;
+    private BitSet broken;
+
+    /*
+     * A lazily recalculated sheet accepts an update before the usages of the updated cells
+     * are evaluated, so each update is journalled until no cell it made stale is outdated,
+     * that is, stale and not yet evaluated since.
+     * Once an outdated cell fails to evaluate the sheet is unsettled, see settle().
+     */
+    private List<Edit> journal = new ArrayList<>();
+    private BitSet outdated;
+    private boolean unsettled;
+    private final List<UpdateResponse> rejected = new ArrayList<>();
+
+    private record Edit(Map<Integer, Expression> previous, Map<Integer, String> sources,
+                        Map<Integer, Expression> formulas) {
+    }
+
     /**
      * Construct a new instance of the sheet class.
      * <p>
@@ -48,23 +110,68 @@ public class Sheet implements SheetView, SheetUpdate {
      */
     Sheet(Parser parser, Map<String, Expression> builtins,
           Expression defaultExpression, int rows, int columns) {
+        this(parser, builtins, defaultExpression, rows, columns,
+                new DenseCellStore(rows * columns));
+    }
+
+    /**
+     * Construct a new instance of the sheet class storing its cells in the given storage.
+     *
+     * @param parser            The parser instance used to create expressions.
+     * @param builtins          A mapping of built-in identifiers to expressions.
+     * @param defaultExpression The default expression to load in every cell.
+     * @param rows              Amount of rows for the new sheet.
+     * @param columns           Amount of columns for the new sheet.
+     * @param cells             Empty storage for the cells of the sheet.
+     * @requires rows &gt; 0
+     * @requires columns &gt; 0 &amp;&amp; columns &lt; 26
+     * @requires rows * columns &lt;= Integer.MAX_VALUE
+     */
+    Sheet(Parser parser, Map<String, Expression> builtins,
+          Expression defaultExpression, int rows, int columns, CellStore cells) {
         this.parser = parser;
         this.rows = rows;
         this.columns = columns;
         this.defaultExpression = defaultExpression;
         this.builtins = new HashMap<>(builtins);
-        this.populate();
+        this.cells = cells;
+
+        // built-ins are bound to slots as formulas are inserted, see bind(int, Expression)
+        this.slots = new HashMap<>();
+        this.slotted = new Expression[this.builtins.size()];
+        for (Map.Entry<String, Expression> builtin : this.builtins.entrySet()) {
+            slotted[slots.size()] = builtin.getValue();
+            slots.put(builtin.getKey(), slots.size());
+        }
     }
 
-    private void populate() {
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < columns; j++) {
-                CellLocation location = new CellLocation(i, j);
-                values.put(location, defaultExpression);
-                formulas.put(location, defaultExpression);
-                usages.put(location, new HashSet<>());
-            }
+    private int index(CellLocation location) {
+        return location.getRow() * columns + location.getColumn();
+    }
+
+    private CellLocation location(int index) {
+        return new CellLocation(index / columns, index % columns);
+    }
+
+    private Expression formula(int index) {
+        if (unparsed != null && unparsed.get(index)) {
+            parse(index);
         }
+        Expression formula = cells.formula(index);
+        return formula != null ? formula : defaultExpression;
+    }
+
+    private Expression value(int index) {
+        if (stale != null && stale.get(index)) {
+            evaluate(index);
+        }
+        Expression value = cells.value(index);
+        return value != null ? value : defaultExpression;
+    }
+
+    private Set<Integer> usages(int index) {
+        Set<Integer> usage = cells.usages(index);
+        return usage != null ? usage : Set.of();
     }
 
     /**
@@ -155,6 +262,48 @@ public class Sheet implements SheetView, SheetUpdate {
         }
     }
 
+    /**
+     * Attempt to update many cells within the sheet at once.
+     * <p>
+     * Each input is parsed using the sheet's {@link Parser}.
+     * An input that cannot be parsed fails with "Unable to parse: [input]"
+     * and leaves its cell unchanged.
+     * <p>
+     * The parsed inputs are then inserted together as per {@link #update(Map)},
+     * so the dependant cells are recalculated once for the whole batch.
+     * If a later edit targets the same cell as an earlier one, the later edit wins.
+     * If a {@link TypeError} occurs, none of the edits are applied and
+     * every parsed edit fails with "Type error: [e]".
+     *
+     * @param edits The cells to replace and their new inputs, in order.
+     * @return An {@link UpdateResponse} for each edit, in the same order as the edits.
+     */
+    @Override
+    public List<UpdateResponse> updateAll(List<CellEdit> edits) {
+        UpdateResponse[] responses = new UpdateResponse[edits.size()];
+        Map<CellLocation, Expression> parsed = new LinkedHashMap<>();
+        for (int i = 0; i < responses.length; i++) {
+            CellEdit edit = edits.get(i);
+            try {
+                parsed.put(new CellLocation(edit.row(), edit.column()), parser.parse(edit.input()));
+                responses[i] = UpdateResponse.success();
+            } catch (ParseException e) {
+                responses[i] = UpdateResponse.fail("Unable to parse: " + edit.input());
+            }
+        }
+
+        try {
+            update(parsed);
+        } catch (TypeError e) {
+            for (int i = 0; i < responses.length; i++) {
+                if (responses[i].isSuccess()) {
+                    responses[i] = UpdateResponse.fail("Type error: " + e);
+                }
+            }
+        }
+        return List.of(responses);
+    }
+
     /**
      * The formula expression currently stored at the location in the spreadsheet.
      *
@@ -163,22 +312,33 @@ public class Sheet implements SheetView, SheetUpdate {
      * @requires location is within the bounds (row/columns) of the spreadsheet.
      */
     public Expression formulaAt(CellLocation location) {
-        return formulas.get(location);
+        Expression formula = formula(index(location));
+        return formula instanceof SharedFormula shared ? shared.formula() : formula;
     }
 
     /**
      * The value expression currently stored at the location in the spreadsheet.
-     * The value expression is the result of calling {@link Expression#value(Map)}
+     * The value expression is the result of calling {@link Expression#value(EvaluationContext)}
      * on the corresponding formula.
-     * The {@link Expression#value(Map)} must not be called in this method,
-     * it should be called when a formula is updated in {@link #update(CellLocation, Expression)}.
+     * A cell of an eagerly recalculated sheet is evaluated when a formula is updated
+     * in {@link #update(CellLocation, Expression)}, so its value is only read here.
+     * A stale cell of a lazily loaded or lazily recalculated sheet is evaluated here instead.
+     * <p>
+     * In a lazily recalculated sheet, the value may rely on an update that is later rejected,
+     * once a cell using that update is found to fail, see {@link #recalculateLazily(boolean)}.
+     * If evaluating this cell finds such an update, it is rejected before the value is returned.
      *
      * @param location A cell location within the spreadsheet.
      * @return The value expression at the given cell location.
      * @requires location is within the bounds (row/columns) of the spreadsheet.
      */
     public Expression valueAt(CellLocation location) {
-        return values.get(location);
+        Expression value = value(index(location));
+        if (unsettled) {
+            settle();
+            value = value(index(location));
+        }
+        return value;
     }
 
     /**
@@ -211,27 +371,111 @@ public class Sheet implements SheetView, SheetUpdate {
      * @see Expression#dependencies()
      */
     public Set<CellLocation> usedBy(CellLocation location) {
-        Set<CellLocation> usages = new HashSet<>();
-        usedBy(location, usages);
-        return usages;
+        link();
+        Set<Integer> seen = new HashSet<>();
+        usedBy(index(location), seen);
+        Set<CellLocation> locations = new HashSet<>();
+        for (int index : seen) {
+            locations.add(location(index));
+        }
+        return locations;
     }
 
-    private void usedBy(CellLocation location, Set<CellLocation> seen) {
-        for (CellLocation next : usages.get(location)) {
-            if (seen.contains(next)) {
-                return;
+    /*
+     * Adds every transitive usage of the cell to seen.
+     * The usages are walked with an explicit stack,
+     * so long chains of references cannot overflow the call stack.
+     */
+    private void usedBy(int index, Set<Integer> seen) {
+        Deque<Integer> pending = new ArrayDeque<>();
+        pending.push(index);
+        while (!pending.isEmpty()) {
+            for (int next : usages(pending.pop())) {
+                if (seen.add(next)) {
+                    pending.push(next);
+                }
             }
-            seen.add(next);
-            usedBy(next, seen);
         }
     }
 
-    private Map<String, Expression> createState() {
-        Map<String, Expression> symbols = new HashMap<>(builtins);
-        for (CellLocation location : formulas.keySet()) {
-            symbols.put(location.toString(), values.get(location));
+    private boolean inBounds(CellLocation location) {
+        return location.getRow() >= 0 && location.getRow() < rows
+                && location.getColumn() >= 0 && location.getColumn() < columns;
+    }
+
+    /**
+     * Evaluation context that reads cell values straight from the sheet.
+     * <p>
+     * Values computed during an update are staged in the context
+     * and shadow the stored values until they are committed.
+     */
+    private class SheetContext implements EvaluationContext, Template.CellValues {
+        private final Map<Integer, Expression> staged = new HashMap<>();
+
+        private void stage(int index, Expression value) {
+            staged.put(index, value);
+        }
+
+        private void commit() {
+            for (Map.Entry<Integer, Expression> entry : staged.entrySet()) {
+                Expression value = entry.getValue();
+                cells.setValue(entry.getKey(), value == defaultExpression ? null : value);
+                if (stale != null) {
+                    stale.clear(entry.getKey());
+                    outdated.clear(entry.getKey());
+                    broken.clear(entry.getKey());
+                }
+            }
+        }
+
+        @Override
+        public Expression lookup(String identifier) {
+            Optional<CellLocation> reference = CellLocation.maybeReference(identifier);
+            if (reference.isPresent() && inBounds(reference.get())) {
+                return cellValue(index(reference.get()));
+            }
+            return builtins.get(identifier);
+        }
+
+        @Override
+        public Expression valueAt(int row, int column) {
+            return cellValue(row * columns + column);
+        }
+
+        @Override
+        public Expression builtinAt(int slot) {
+            return slotted[slot];
+        }
+
+        private Expression cellValue(int index) {
+            Expression value = staged.get(index);
+            return value != null ? value : value(index);
+        }
+
+        @Override
+        public Map<String, Expression> asMap() {
+            return new AbstractMap<>() {
+                @Override
+                public Expression get(Object key) {
+                    return key instanceof String identifier ? lookup(identifier) : null;
+                }
+
+                @Override
+                public boolean containsKey(Object key) {
+                    return get(key) != null;
+                }
+
+                @Override
+                public Set<Entry<String, Expression>> entrySet() {
+                    Map<String, Expression> symbols = new HashMap<>(builtins);
+                    for (int index = 0; index < rows * columns; index++) {
+                        String identifier = location(index).toString();
+                        symbols.put(identifier, lookup(identifier));
+                    }
+                    return symbols.entrySet();
+                }
+            };
         }
-        return symbols;
     }
 
     /**
@@ -251,55 +495,844 @@ public class Sheet implements SheetView, SheetUpdate {
      * <p>
      * If a {@link TypeError} is thrown at any point during the update of this cell or any dependant cells,
      * the sheet should return to the same state as before this method was called.
+     * Any other exception thrown by an evaluation, such as dividing by zero,
+     * is likewise thrown once the sheet is returned to that state.
      * <p>
-     * The behaviour of inserting a reference loop into the sheet,
+     * Inserting a reference loop into the sheet,
      * e.g. A0 refers to A1, A1 refers to A2, A2 refers to A0 or B1 refers to B1,
-     * is unspecified and will not be tested.
+     * is rejected with a {@link ReferenceLoop} naming the cells of the loop,
+     * and the sheet is left as it was.
      *
      * @param location A cell location to insert the expression into the sheet.
      * @param cell     An expression to insert at the given location.
      * @throws TypeError If the evaluation of the inserted cell or any of its usages
-     *                   results in a TypeError being thrown.
+     *                   results in a TypeError being thrown,
+     *                   or a {@link ReferenceLoop} if the cell would depend on its own value.
      * @requires location is within the bounds (row/columns) of the spreadsheet.
      */
     public void update(CellLocation location, Expression cell) throws TypeError {
-        Map<String, Expression> state = createState();
-        state.put(location.toString(), cell.value(state));
-        // recursively pre-calculate all the updated values
-        // this approach triggers a TypeError before the state is modified
-        applyUpdate(state, location);
+        update(Map.of(location, cell));
+    }
+
+    /**
+     * Insert many expressions into the sheet at once, updating the sheet as required.
+     * <p>
+     * The result is the same as calling {@link #update(CellLocation, Expression)}
+     * for each entry, except that every affected cell is recalculated only once,
+     * after all the expressions have been inserted.
+     * Expressions may therefore refer to cells inserted in the same call.
+     * <p>
+     * If a {@link TypeError} is thrown at any point during the update,
+     * none of the expressions are inserted and
+     * the sheet returns to the same state as before this method was called.
+     * A lazily recalculated sheet may only find a type error in a usage once it is viewed,
+     * see {@link #recalculateLazily(boolean)}.
+     * <p>
+     * Before any cell is recalculated, the inserted cells are checked for a reference loop.
+     * A loop made by the update must pass through an inserted cell and a cell it now refers to
+     * that is not below it, so only the cells whose height must be raised are searched.
+     * An update referring only to cells below the inserted cells is not searched at all.
+     *
+     * @param formulas The expressions to insert, keyed by their cell locations.
+     * @throws TypeError If the evaluation of any inserted cell or any of its usages
+     *                   results in a TypeError being thrown,
+     *                   or a {@link ReferenceLoop} if any of them would depend on its own value.
+     * @requires every location is within the bounds (row/columns) of the spreadsheet.
+     */
+    public void update(Map<CellLocation, Expression> formulas) throws TypeError {
+        Map<Integer, Expression> inserted = new LinkedHashMap<>();
+        formulas.forEach((location, formula) -> inserted.put(index(location), formula));
+        if (!lazyRecalculation) {
+            materialize();
+            apply(inserted, false);
+            return;
+        }
+        link();
+        try {
+            Edit edit = apply(inserted, true);
+            if (!unsettled) {
+                journal.add(edit);
+                return;
+            }
+            undo(edit);
+        } catch (TypeError | RuntimeException e) {
+            if (journal.isEmpty()) {
+                throw e;
+            }
+            // the update may only fail because of values an earlier update will lose
+        }
+        // evaluating this update found an earlier update to fail, or may have,
+        // so the earlier updates are settled before it is made again
+        settle();
+        journal.add(apply(inserted, true));
+    }
+
+    /*
+     * Inserts the formulas, keyed by index, and recalculates the sheet,
+     * rolling the formulas back if a loop or type error is found.
+     * Returns what the update replaced, so that it may be undone.
+     */
+    private Edit apply(Map<Integer, Expression> formulas, boolean lazily) throws TypeError {
+        // insert the formulas first, so the recalculation follows the new dependencies
+        Map<Integer, Expression> previous = new LinkedHashMap<>();
+        Map<Integer, String> texts = new HashMap<>();
+        for (Map.Entry<Integer, Expression> entry : formulas.entrySet()) {
+            int index = entry.getKey();
+            previous.putIfAbsent(index, formula(index));
+            if (source(index) != null) {
+                texts.put(index, source(index));
+            }
+            // the inserted cells are linked to the cells they refer to by insert(Collection)
+            removeUsages(index, formula(index));
+            storeFormula(index, entry.getValue());
+        }
+        Set<Integer> wasTangled = tangled;
+        boolean reordered;
+        try {
+            reordered = insert(previous.keySet());
+        } catch (ReferenceLoop e) {
+            previous.forEach(this::setFormula);
+            throw e;
+        }
+        Set<Integer> roots = new LinkedHashSet<>(previous.keySet());
+        if (reordered) {
+            // cells no longer tangled need a value, and newly tangled cells lose theirs
+            for (int index : wasTangled) {
+                if (!tangled.contains(index)) {
+                    roots.add(index);
+                }
+            }
+            for (int index : tangled) {
+                if (!wasTangled.contains(index)) {
+                    roots.add(index);
+                }
+            }
+        }
+        try {
+            recalculate(previous, roots, lazily);
+        } catch (TypeError | RuntimeException e) {
+            if (reordered) {
+                order();
+            }
+            throw e;
+        }
+        discardSources(previous.keySet());
+        return new Edit(previous, texts, formulas);
+    }
+
+    /*
+     * Restores the formulas and text replaced by an update, and marks the cells stale.
+     * The heights are left to be ordered again.
+     */
+    private void undo(Edit edit) {
+        edit.previous().forEach(this::setFormula);
+        edit.sources().forEach((index, text) -> sources.get(index / columns)[index % columns] = text);
+        invalidate(edit.previous().keySet());
+    }
+
+    /*
+     * Called once a usage of a journalled update is found to have a type error.
+     * Every journalled update is undone, then made again in order, recalculating eagerly,
+     * so the updates that fail are rejected just as in an eagerly recalculated sheet.
+     */
+    private void settle() {
+        unsettled = false;
+        List<Edit> edits = journal;
+        journal = new ArrayList<>();
+        for (int i = edits.size() - 1; i >= 0; i--) {
+            undo(edits.get(i));
+        }
+        order();
+        for (Edit edit : edits) {
+            try {
+                apply(edit.formulas(), false);
+            } catch (TypeError e) {
+                rejected.add(UpdateResponse.fail("Type error: " + e));
+            } catch (RuntimeException e) {
+                rejected.add(UpdateResponse.fail("Evaluation error: " + e));
+            }
+        }
+    }
+
+    /**
+     * The earlier updates rejected since this was last called, in the order they were made.
+     * <p>
+     * A lazily recalculated sheet accepts an update once the updated cells are evaluated.
+     * If a usage of the updated cells is later found to have a type error,
+     * the update is rejected and undone as an eagerly recalculated sheet would have,
+     * and reported here with "Type error: [e]", as per {@link #update(int, int, String)}.
+     * A usage failing in any other way, such as by dividing by zero,
+     * is reported with "Evaluation error: [e]".
+     *
+     * @return An {@link UpdateResponse} for each rejected update.
+     */
+    public List<UpdateResponse> rejectedUpdates() {
+        List<UpdateResponse> responses = List.copyOf(rejected);
+        rejected.clear();
+        return responses;
+    }
+
+    /*
+     * Links each inserted cell to the cells it refers to, one cell at a time,
+     * raising heights so that every cell stays above the cells it depends on.
+     * As every earlier link keeps the heights in order, a loop made by linking a cell
+     * is found by raising the cells above it until the cell itself must be raised again.
+     * Once an inserted cell is or becomes tangled, heights no longer order the cells,
+     * so the usages of the remaining cells are searched instead, and every height is
+     * computed again. Returns whether every height was computed again.
+     * If a loop is found, the heights are restored and the inserted cells are left unlinked.
+     */
+    private boolean insert(Collection<Integer> roots) throws ReferenceLoop {
+        Map<Integer, Integer> saved = new HashMap<>();
+        boolean tangles = false;
+        try {
+            for (int root : roots) {
+                addUsages(root, formula(root));
+                tangles |= cells.height(root) == TANGLED;
+                for (int dependency : dependencies(formula(root))) {
+                    tangles |= cells.height(dependency) == TANGLED;
+                }
+                if (tangles) {
+                    search(root);
+                } else {
+                    raise(root, saved);
+                }
+            }
+        } catch (ReferenceLoop e) {
+            saved.forEach(cells::setHeight);
+            throw e;
+        }
+        if (tangles) {
+            order();
+        }
+        return tangles;
+    }
+
+    /*
+     * Raises the cell above the cells it depends on, then each cell using a raised cell
+     * above it in turn, saving the height each raised cell had before.
+     * Cells are raised in order of their previous height, so each is raised only once,
+     * after every raised cell it depends on.
+     * Throws if the cell itself must be raised again, as it then uses its own value.
+     */
+    private void raise(int root, Map<Integer, Integer> saved) throws ReferenceLoop {
+        int height = 0;
+        for (int dependency : dependencies(formula(root))) {
+            height = Math.max(height, cells.height(dependency) + 1);
+        }
+        if (height <= cells.height(root)) {
+            return;
+        }
+        Map<Integer, Integer> raised = new HashMap<>();
+        PriorityQueue<Long> pending = new PriorityQueue<>();
+        raised.put(root, height);
+        pending.add(position(root));
+        while (!pending.isEmpty()) {
+            int cell = (int) pending.remove().longValue();
+            int above = raised.remove(cell);
+            saved.putIfAbsent(cell, cells.height(cell));
+            cells.setHeight(cell, above);
+            for (int usage : usages(cell)) {
+                if (usage == root) {
+                    throw new ReferenceLoop(loop(root, saved.keySet()));
+                }
+                Integer waiting = raised.get(usage);
+                if ((waiting != null ? waiting : cells.height(usage)) <= above) {
+                    if (waiting == null) {
+                        pending.add(position(usage));
+                    }
+                    raised.put(usage, above + 1);
+                }
+            }
+        }
+    }
+
+    /*
+     * Throws if the cell uses its own value, searching every cell that uses it.
+     * Walked with an explicit stack, so long chains of usages cannot overflow the call stack.
+     */
+    private void search(int root) throws ReferenceLoop {
+        Set<Integer> seen = new HashSet<>();
+        Deque<Integer> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            for (int usage : usages(pending.pop())) {
+                if (usage == root) {
+                    throw new ReferenceLoop(loop(root, seen));
+                }
+                if (seen.add(usage)) {
+                    pending.push(usage);
+                }
+            }
+        }
+    }
+
+    /*
+     * The shortest loop from the cell back to itself through the cells it refers to,
+     * passing only through the given cells.
+     */
+    private List<CellLocation> loop(int start, Set<Integer> members) {
+        Map<Integer, Integer> parents = new HashMap<>();
+        Deque<Integer> queue = new ArrayDeque<>();
+        queue.add(start);
+        while (true) {
+            int cell = queue.remove();
+            for (int dependency : dependencies(formula(cell))) {
+                if (dependency == start) {
+                    List<CellLocation> loop = new ArrayList<>();
+                    for (int step = cell; step != start; step = parents.get(step)) {
+                        loop.add(location(step));
+                    }
+                    loop.add(location(start));
+                    Collections.reverse(loop);
+                    return loop;
+                }
+                if (members.contains(dependency) && !parents.containsKey(dependency)) {
+                    parents.put(dependency, cell);
+                    queue.add(dependency);
+                }
+            }
+        }
+    }
+
+    /*
+     * The order in which the cell is recalculated, by its height then by its index.
+     */
+    private long position(int index) {
+        return (long) cells.height(index) << 32 | index;
+    }
+
+    /**
+     * Compute the height of every cell again, from the cells they depend on.
+     * A cell depending on no other cell has height 0,
+     * and any other cell is one above the highest cell it depends on.
+     * Cells caught in a loop of references, or depending on such a cell, are tangled.
+     * <p>
+     * Called once the formulas and usages of a loaded sheet are known.
+     */
+    void order() {
+        for (int index : tangled) {
+            cells.setHeight(index, 0);
+        }
+        Map<Integer, Integer> waiting = new HashMap<>();
+        for (int index : cells.formulaIndices()) {
+            int count = dependencies(formula(index)).length;
+            if (count > 0) {
+                waiting.put(index, count);
+            }
+        }
+        Deque<Integer> ready = new ArrayDeque<>();
+        for (int index : cells.usageIndices()) {
+            if (!waiting.containsKey(index)) {
+                cells.setHeight(index, 0);
+                ready.push(index);
+            }
+        }
+        Map<Integer, Integer> heights = new HashMap<>();
+        while (!ready.isEmpty()) {
+            int index = ready.pop();
+            int above = cells.height(index) + 1;
+            for (int usage : usages(index)) {
+                heights.merge(usage, above, Math::max);
+                if (waiting.merge(usage, -1, Integer::sum) == 0) {
+                    waiting.remove(usage);
+                    cells.setHeight(usage, heights.remove(usage));
+                    ready.push(usage);
+                }
+            }
+        }
+        // the cells still waiting never had every dependency ordered
+        for (int index : waiting.keySet()) {
+            cells.setHeight(index, TANGLED);
+        }
+        tangled = waiting.isEmpty() ? Set.of() : new HashSet<>(waiting.keySet());
+    }
+
+    /**
+     * Insert rows of expressions into the sheet, starting from the first row,
+     * as per {@link #update(Map)}.
+     * Rows shorter than the sheet leave their trailing cells unchanged.
+     *
+     * @param rows The expressions to insert, row by row.
+     * @throws TypeError If the evaluation of any inserted cell or any of its usages
+     *                   results in a TypeError being thrown.
+     * @requires rows.size() &lt;= getRows() and no row is longer than getColumns().
+     */
+    void fill(List<Expression[]> rows) throws TypeError {
+        Map<Integer, Expression> previous = new LinkedHashMap<>();
+        for (int row = 0; row < rows.size(); row++) {
+            Expression[] formulas = rows.get(row);
+            for (int column = 0; column < formulas.length; column++) {
+                int index = row * columns + column;
+                previous.putIfAbsent(index, formula(index));
+                setFormula(index, formulas[column]);
+            }
+        }
+        order();
+        recalculate(previous, previous.keySet(), lazyRecalculation);
+    }
+
+    /**
+     * Insert rows of formulas into an empty sheet, starting from the first row,
+     * without parsing or evaluating them.
+     * <p>
+     * Each cell is parsed the first time its formula is needed,
+     * and evaluated the first time its value is needed.
+     * Every cell is parsed and evaluated before the first update,
+     * as the dependencies of every cell must then be known,
+     * though a lazily recalculated sheet leaves the cells to be evaluated when viewed.
+     * <p>
+     * Text that cannot be parsed is treated as the default expression.
+     * A cell whose evaluation fails, with a type error or otherwise such as by dividing by zero,
+     * or that is caught in a reference loop, keeps the default value,
+     * as do the cells depending on it.
+     * Until a cell is updated, {@link #encode()} writes its original text.
+     *
+     * @param rows The text of each cell, row by row. The arrays are retained by the sheet.
+     * @requires the sheet is empty,
+     *           rows.size() &lt;= getRows() and no row is longer than getColumns().
+     */
+    void defer(List<String[]> rows) {
+        sources = rows;
+        unparsed = new BitSet();
+        stale = new BitSet();
+        broken = new BitSet();
+        outdated = new BitSet();
+        for (int row = 0; row < rows.size(); row++) {
+            int start = row * columns;
+            unparsed.set(start, start + rows.get(row).length);
+            stale.set(start, start + rows.get(row).length);
+        }
+    }
+
+    private String source(int index) {
+        int row = index / columns;
+        int column = index % columns;
+        if (sources == null || row >= sources.size() || column >= sources.get(row).length) {
+            return null;
+        }
+        return sources.get(row)[column];
+    }
+
+    private void parse(int index) {
+        unparsed.clear(index);
+        Expression formula;
+        try {
+            formula = parser.parse(source(index));
+        } catch (ParseException e) {
+            formula = defaultExpression;
+        }
+        cells.setFormula(index, formula == defaultExpression ? null : bind(index, formula));
+    }
+
+    /*
+     * Evaluates a stale cell, after first evaluating its stale dependencies.
+     * The dependencies are walked depth first with an explicit stack,
+     * so long chains of references cannot overflow the call stack.
+     */
+    private void evaluate(int root) {
+        SheetContext context = new SheetContext();
+        Set<Integer> expanded = new HashSet<>();
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            int index = stack.peek();
+            if (!stale.get(index)) {
+                stack.pop();
+                continue;
+            }
+            if (expanded.add(index)) {
+                for (int dependency : dependencies(formula(index))) {
+                    if (expanded.contains(dependency) && stale.get(dependency)) {
+                        // an expanded but unfinished dependency is on the current path
+                        broken.set(index);
+                    } else if (stale.get(dependency)) {
+                        stack.push(dependency);
+                    }
+                }
+                continue;
+            }
+
+            stack.pop();
+            stale.clear(index);
+            outdated.clear(index);
+            for (int dependency : dependencies(formula(index))) {
+                if (broken.get(dependency)) {
+                    broken.set(index);
+                }
+            }
+            if (!broken.get(index)) {
+                try {
+                    Expression value = formula(index).value(context);
+                    cells.setValue(index, value == defaultExpression ? null : value);
+                    continue;
+                } catch (TypeError | RuntimeException e) {
+                    broken.set(index);
+                    unsettled |= !journal.isEmpty();
+                }
+            }
+            // a recalculated cell may hold a value from before it broke
+            cells.setValue(index, null);
+        }
+        confirm();
+    }
+
+    /*
+     * Forgets the journalled updates once every usage of them is evaluated without error.
+     */
+    private void confirm() {
+        if (!unsettled && outdated.isEmpty()) {
+            journal.clear();
+        }
+    }
+
+    /*
+     * Parses every deferred cell and builds their usages.
+     */
+    private void link() {
+        if (unparsed == null) {
+            return;
+        }
+        for (int index = unparsed.nextSetBit(0); index >= 0; index = unparsed.nextSetBit(index + 1)) {
+            parse(index);
+        }
+        for (int index : cells.formulaIndices()) {
+            addUsages(index, formula(index));
+        }
+        unparsed = null;
+        order();
+    }
+
+    /*
+     * Parses and evaluates every deferred cell, and builds their usages.
+     */
+    private void materialize() {
+        link();
+        if (stale == null) {
+            return;
+        }
+        for (int index = stale.nextSetBit(0); index >= 0; index = stale.nextSetBit(index + 1)) {
+            evaluate(index);
+        }
+        if (unsettled) {
+            settle();
+            materialize();
+        } else if (!lazyRecalculation) {
+            stale = null;
+            broken = null;
+            outdated = null;
+        }
+    }
+
+    /*
+     * Marks the cells and all of their transitive usages as stale and outdated.
+     * The walk stops at cells already outdated, as their usages are outdated too.
+     */
+    private void invalidate(Collection<Integer> roots) {
+        Deque<Integer> pending = new ArrayDeque<>(roots);
+        for (int root : roots) {
+            outdated.clear(root);
+        }
+        while (!pending.isEmpty()) {
+            int index = pending.pop();
+            if (outdated.get(index)) {
+                continue;
+            }
+            stale.set(index);
+            outdated.set(index);
+            broken.clear(index);
+            pending.addAll(usages(index));
+        }
+    }
+
+    /*
+     * Evaluates only the given cells, leaving their usages stale until viewed.
+     * Cells the given cells depend on are evaluated as they are needed.
+     * No given cell is left with a new value if a type error occurs.
+     */
+    private void evaluateLazily(Collection<Integer> roots) throws TypeError {
+        invalidate(roots);
+        SheetContext context = new SheetContext();
+        Map<Integer, Expression> values = new LinkedHashMap<>();
+        for (int root : roots) {
+            values.put(root, cells.height(root) == TANGLED
+                    ? defaultExpression : formula(root).value(context));
+        }
+        values.forEach((root, value) -> {
+            stale.clear(root);
+            outdated.clear(root);
+            cells.setValue(root, value == defaultExpression ? null : value);
+        });
+        confirm();
+    }
+
+    /*
+     * Recalculates the inserted cells and their usages, along with any other given roots,
+     * committing the values only if no type error occurs.
+     * Otherwise, the previous formulas are restored,
+     * as they are if evaluation fails in any other way, such as dividing by zero.
+     */
+    private void recalculate(Map<Integer, Expression> previous, Collection<Integer> roots,
+                             boolean lazily) throws TypeError {
+        try {
+            if (lazily) {
+                evaluateLazily(previous.keySet());
+            } else {
+                refresh(roots);
+            }
+        } catch (TypeError | RuntimeException e) {
+            previous.forEach(this::setFormula);
+            if (stale != null) {
+                // cells evaluated against the new formulas are out of date again
+                invalidate(previous.keySet());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Recalculate the given cells and every cell that depends on them.
+     * No value is modified if a type error occurs.
+     * <p>
+     * A cell is only recalculated if it is one of the given cells,
+     * or if the value of a cell it depends on has changed.
+     * So, once a recalculated value is equal to its previous value,
+     * the cells depending on it through that cell are left as they are.
+     * Cells are recalculated in order of height, so each is recalculated at most once,
+     * after every cell it depends on, and cells of the same height together.
+     * Tangled cells are given the default value.
+     * The previous value of a stale cell is not known, so the cells depending on it are
+     * recalculated too.
+     *
+     * @param roots The indices of the cells whose values are out of date.
+     * @throws TypeError If any recalculated cell has a type error.
+     */
+    void refresh(Collection<Integer> roots) throws TypeError {
+        SheetContext context = new SheetContext();
+        PriorityQueue<Long> pending = new PriorityQueue<>();
+        Set<Integer> queued = new HashSet<>();
+        for (int root : roots) {
+            if (queued.add(root)) {
+                pending.add(position(root));
+            }
+        }
+        // pre-calculate every changed value once, in order of height
+        // this approach triggers a TypeError before any value is modified
+        int[] level = new int[16];
+        while (!pending.isEmpty()) {
+            int height = (int) (pending.peek() >>> 32);
+            int size = 0;
+            while (!pending.isEmpty() && pending.peek() >>> 32 == height) {
+                if (size == level.length) {
+                    level = Arrays.copyOf(level, size * 2);
+                }
+                level[size++] = (int) pending.remove().longValue();
+            }
+            int[] cells = Arrays.copyOf(level, size);
+            Expression[] values;
+            if (height == TANGLED) {
+                values = new Expression[size];
+                Arrays.fill(values, defaultExpression);
+            } else {
+                values = evaluateLevel(cells, context);
+            }
+            for (int i = 0; i < size; i++) {
+                context.stage(cells[i], values[i]);
+                if (stale != null && stale.get(cells[i])
+                        || !Objects.equals(values[i], value(cells[i]))) {
+                    for (int usage : usages(cells[i])) {
+                        if (queued.add(usage)) {
+                            pending.add(position(usage));
+                        }
+                    }
+                }
+            }
+        }
 
         // no type error, update the state
-        updateUsage(location, cell);
-        formulas.put(location, cell);
-        for (CellLocation existing : values.keySet()) {
-            if (state.containsKey(existing.toString())) {
-                values.put(existing, state.get(existing.toString()));
+        context.commit();
+    }
+
+    /*
+     * Evaluates cells of the same height, concurrently if there are enough of them.
+     * The cells only read values staged for lower cells, which are not modified meanwhile.
+     * A sheet with stale cells evaluates them as they are read, so evaluates in turn.
+     * If any cell fails, the failure of the first such cell in the level is thrown.
+     */
+    private Expression[] evaluateLevel(int[] level, SheetContext context) throws TypeError {
+        Expression[] values = new Expression[level.length];
+        if (recalculationPool == null || stale != null || level.length < PARALLEL_THRESHOLD) {
+            for (int i = 0; i < level.length; i++) {
+                values[i] = formula(level[i]).value(context);
             }
+            return values;
         }
+
+        Exception[] failures = new Exception[level.length];
+        List<ForkJoinTask<?>> chunks = new ArrayList<>();
+        for (int from = 0; from < level.length; from += PARALLEL_CHUNK) {
+            int start = from;
+            int end = Math.min(level.length, from + PARALLEL_CHUNK);
+            chunks.add(ForkJoinTask.adapt(
+                    () -> evaluateChunk(level, start, end, values, failures, context)));
+        }
+        recalculationPool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(chunks)));
+        for (Exception failure : failures) {
+            if (failure instanceof TypeError e) {
+                throw e;
+            } else if (failure instanceof RuntimeException e) {
+                throw e;
+            }
+        }
+        return values;
     }
 
-    private void applyUpdate(Map<String, Expression> state, CellLocation location)
-            throws TypeError {
-        for (CellLocation usage : usages.get(location)) {
-            Expression value = formulas.get(usage).value(state);
-            state.put(usage.toString(), value);
-            applyUpdate(state, usage);
+    /*
+     * Evaluates part of a level, recording the failure of each cell rather than stopping.
+     */
+    private void evaluateChunk(int[] level, int from, int to, Expression[] values,
+                               Exception[] failures, SheetContext context) {
+        for (int i = from; i < to; i++) {
+            try {
+                values[i] = formula(level[i]).value(context);
+            } catch (TypeError | RuntimeException e) {
+                failures[i] = e;
+            }
         }
     }
 
-    private void updateUsage(CellLocation location, Expression newExpression) {
-        // remove all usages of old formula
-        Expression oldExpression = formulas.get(location);
-        for (String oldDep : oldExpression.dependencies()) {
-            Optional<CellLocation> ref = CellLocation.maybeReference(oldDep);
-            ref.ifPresent(cellLocation -> usages.get(cellLocation).remove(location));
+    /**
+     * Recalculate large levels of independent cells concurrently on the given pool.
+     * Values, and which type error is reported, are the same as recalculating sequentially.
+     *
+     * @param pool The pool to recalculate on, or null to recalculate on the calling thread.
+     * @requires the expressions of the sheet may be evaluated by multiple threads at once.
+     */
+    void recalculateWith(ForkJoinPool pool) {
+        this.recalculationPool = pool;
+    }
+
+    /**
+     * Recalculate the usages of updated cells only when their values are viewed.
+     * <p>
+     * An update evaluates just the updated cells, and marks every cell using them as stale.
+     * A stale cell is evaluated, along with any stale cells it depends on,
+     * the next time its value is needed, and the value is kept until it is stale again.
+     * <p>
+     * Type errors in the updated cells are reported and rolled back as usual.
+     * A type error in a usage is found only once the usage is evaluated.
+     * The updates since every usage was last evaluated are then undone and made again,
+     * recalculating eagerly, so the updates that fail are rolled back as in an eagerly
+     * recalculated sheet, and reported by {@link #rejectedUpdates()}.
+     * Until then, values may rely on updates that are later rejected.
+     * An update that fails while earlier updates are yet to be settled
+     * is only rejected once they are, as it may fail only because of them.
+     *
+     * @param lazy Whether to defer recalculating the usages of updated cells.
+     */
+    void recalculateLazily(boolean lazy) {
+        this.lazyRecalculation = lazy;
+        if (lazy && stale == null) {
+            stale = new BitSet();
+            broken = new BitSet();
+            outdated = new BitSet();
         }
+    }
 
-        // insert all new usages
-        for (String dep : newExpression.dependencies()) {
-            Optional<CellLocation> ref = CellLocation.maybeReference(dep);
-            ref.ifPresent(cellLocation -> usages.get(cellLocation).add(location));
+    private void setFormula(int index, Expression formula) {
+        removeUsages(index, formula(index));
+        addUsages(index, formula);
+        storeFormula(index, formula);
+    }
+
+    private void storeFormula(int index, Expression formula) {
+        cells.setFormula(index, formula == defaultExpression ? null : bind(index, formula));
+    }
+
+    /*
+     * Forgets the original text of updated cells, which no longer describes them.
+     * Called only once an update commits, so a rejected update keeps the text.
+     */
+    private void discardSources(Collection<Integer> indices) {
+        for (int index : indices) {
+            if (source(index) != null) {
+                sources.get(index / columns)[index % columns] = null;
+            }
+        }
+    }
+
+    /**
+     * The form of a formula stored in the cell at the index.
+     * <p>
+     * Where possible, the references of the formula are resolved once, here,
+     * into cell offsets and built-in slots, so that evaluating the formula
+     * and maintaining the usages of cells does not resolve names.
+     * This is also where formulas are simplified, see {@link Template}:
+     * every formula of operations the sheet can rebuild is evaluated in its simplified form,
+     * whether or not it refers to any cell, while its formula is kept as written.
+     * The template of the cell above is shared when it is the same.
+     *
+     * @param index   The index of the cell to hold the formula.
+     * @param formula The formula to store.
+     * @return The formula bound to the cell, or the formula itself if it cannot be bound.
+     */
+    Expression bind(int index, Expression formula) {
+        if (formula instanceof SharedFormula) {
+            return formula;
+        }
+        int row = index / columns;
+        int column = index % columns;
+        Template template = Template.of(formula, row, column, rows, columns,
+                identifier -> slots.getOrDefault(identifier, -1));
+        if (template == null) {
+            return formula;
+        }
+        if (row > 0 && cells.formula(index - columns) instanceof SharedFormula above
+                && above.template().equals(template)) {
+            template = above.template();
+        }
+        return new SharedFormula(template, row, column, columns);
+    }
+
+    /*
+     * The distinct indices of the cells within the sheet that the formula refers to.
+     * Bound formulas hold their indices, so only other formulas resolve names here.
+     */
+    private int[] dependencies(Expression formula) {
+        if (formula instanceof SharedFormula shared) {
+            return shared.cells();
+        }
+        Set<String> identifiers = formula.dependencies();
+        if (identifiers.isEmpty()) {
+            return NO_CELLS;
+        }
+        Set<Integer> dependencies = new HashSet<>();
+        for (String dependency : identifiers) {
+            Optional<CellLocation> ref = CellLocation.maybeReference(dependency);
+            if (ref.isPresent() && inBounds(ref.get())) {
+                dependencies.add(index(ref.get()));
+            }
+        }
+        return dependencies.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private void removeUsages(int index, Expression oldExpression) {
+        for (int dependency : dependencies(oldExpression)) {
+            Set<Integer> usage = cells.usages(dependency);
+            if (usage != null && usage.remove(index) && usage.isEmpty()) {
+                cells.setUsages(dependency, null);
+            }
+        }
+    }
+
+    private void addUsages(int index, Expression newExpression) {
+        for (int dependency : dependencies(newExpression)) {
+            Set<Integer> usage = cells.usages(dependency);
+            if (usage == null) {
+                usage = new HashSet<>(4);
+                cells.setUsages(dependency, usage);
+            }
+            usage.add(index);
         }
     }
 
@@ -333,14 +1366,79 @@ public class Sheet implements SheetView, SheetUpdate {
      */
     @Override
     public String encode() {
-        StringJoiner builder = new StringJoiner("\n");
+        StringBuilder builder = new StringBuilder();
+        try {
+            encodeTo(builder);
+        } catch (IOException e) {
+            // a StringBuilder never throws
+            throw new UncheckedIOException(e);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Write the representation given by {@link #encode()} to the destination,
+     * one row at a time, without building the whole representation in memory.
+     *
+     * @param out The destination to write the representation to.
+     * @throws IOException If the destination cannot be written to.
+     */
+    @Override
+    public void encodeTo(Appendable out) throws IOException {
+        String empty = defaultExpression.render();
+        StringJoiner emptyCells = new StringJoiner("|");
+        for (int column = 0; column < columns; column++) {
+            emptyCells.add(empty);
+        }
+        String emptyRow = emptyCells.toString();
+
+        // only rows containing a formula or original text need to be written cell by cell
+        int[] occupied = cells.formulaIndices();
+        int next = 0;
         for (int row = 0; row < rows; row++) {
-            StringJoiner rowEncoding = new StringJoiner("|");
-            for (int column = 0; column < columns; column++) {
-                rowEncoding.add(formulas.get(new CellLocation(row, column)).render());
+            if (row > 0) {
+                out.append('\n');
+            }
+            int rowEnd = (row + 1) * columns;
+            boolean loaded = sources != null && row < sources.size();
+            if (!loaded && (next == occupied.length || occupied[next] >= rowEnd)) {
+                out.append(emptyRow);
+                continue;
+            }
+            for (int index = row * columns; index < rowEnd; index++) {
+                if (index > row * columns) {
+                    out.append('|');
+                }
+                boolean hasFormula = next < occupied.length && occupied[next] == index;
+                if (hasFormula) {
+                    next++;
+                }
+                String source = loaded ? source(index) : null;
+                if (source != null) {
+                    // untouched loaded cells are written back exactly as they were read
+                    out.append(source);
+                } else if (hasFormula) {
+                    out.append(formula(index).render());
+                } else {
+                    out.append(empty);
+                }
             }
-            builder.add(rowEncoding.toString());
         }
-        return builder.toString();
+    }
+
+    /**
+     * Write a binary snapshot of the spreadsheet to the output stream.
+     * <p>
+     * Unlike {@link #encode()}, the snapshot also stores the value of each cell,
+     * so {@link SheetBuilder#loadSnapshot(String)} can restore the spreadsheet
+     * without parsing or recalculating its formulas.
+     * The stream is flushed but not closed.
+     *
+     * @param out The stream to write the snapshot to.
+     * @throws IOException If the stream cannot be written to.
+     */
+    public void writeSnapshot(OutputStream out) throws IOException {
+        materialize();
+        Snapshot.write(out, rows, columns, cells);
     }
 }
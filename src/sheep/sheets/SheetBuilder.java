@@ -5,13 +5,19 @@ import sheep.expression.TypeError;
 import sheep.parsing.ParseException;
 import sheep.parsing.Parser;
 
-import java.io.BufferedReader;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Builder pattern to construct {@link Sheet} instances.
@@ -36,9 +42,18 @@ import java.util.Map;
  * @stage2
  */
 public class SheetBuilder {
+    /**
+     * Number of rows parsed together as one task when loading in parallel.
+     */
+    private static final int PARSE_CHUNK_ROWS = 512;
+
     private final Map<String, Expression> builtins = new HashMap<>();
     private final Parser parser;
     private final Expression defaultExpression;
+    private Executor parseExecutor;
+    private boolean lazy;
+    private ForkJoinPool recalculationPool;
+    private boolean lazyRecalculation;
 
     /**
      * Construct an instance of SheetBuilder that will create
@@ -49,10 +64,6 @@ public class SheetBuilder {
         this.defaultExpression = defaultExpression;
     }
 
-    private static int countCols(String row) {
-        return Math.toIntExact(row.chars().filter(c -> c == '|').count()) + 1;
-    }
-
     private static Expression parseOr(Parser parser, String input, Expression defaultExpr) {
         try {
             return parser.parse(input);
@@ -61,6 +72,29 @@ public class SheetBuilder {
         }
     }
 
+    private List<Expression[]> parseRows(List<String[]> rows) {
+        List<Expression[]> expressions = new ArrayList<>(rows.size());
+        for (String[] row : rows) {
+            Expression[] parsed = new Expression[row.length];
+            for (int i = 0; i < row.length; i++) {
+                parsed[i] = parseOr(parser, row[i], defaultExpression);
+            }
+            expressions.add(parsed);
+        }
+        return expressions;
+    }
+
+    /*
+     * Parses a chunk of rows on the parse executor, if one is set,
+     * otherwise parses the chunk immediately on the calling thread.
+     */
+    private CompletableFuture<List<Expression[]>> parseChunk(List<String[]> rows) {
+        if (parseExecutor == null) {
+            return CompletableFuture.completedFuture(parseRows(rows));
+        }
+        return CompletableFuture.supplyAsync(() -> parseRows(rows), parseExecutor);
+    }
+
     /**
      * Include a new built-in expression for the given identifier
      * within any sheet constructed by this builder instance.
@@ -84,6 +118,123 @@ public class SheetBuilder {
         return this;
     }
 
+    /**
+     * Parse the cells of loaded sheets in parallel using the given executor.
+     * <p>
+     * Rows are parsed in chunks as independent tasks,
+     * and the resulting sheet is identical to one loaded sequentially.
+     * Passing null restores sequential parsing on the calling thread.
+     *
+     * <pre>
+     * {@code
+     * SheetBuilder builder = new SheetBuilder(parser, exp)
+     *         .parseWith(ForkJoinPool.commonPool());
+     * Sheet sheet = builder.load("large.sheep");
+     * }</pre>
+     *
+     * @param executor The executor to run parsing tasks on, or null to parse sequentially.
+     * @return The current instance of the SheetBuilder.
+     * @requires the builder's parser is safe to use from multiple threads at once.
+     * @see #load(String)
+     */
+    public SheetBuilder parseWith(Executor executor) {
+        this.parseExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Defer parsing the cells of loaded sheets until each cell is needed.
+     * <p>
+     * A lazily loaded sheet keeps the original text of its cells,
+     * parsing a cell when its formula or value is first viewed
+     * and parsing every cell before its first update.
+     * Until a cell is updated, it is saved with exactly the text it was loaded with.
+     * Opening and saving a large sheet therefore only costs as much as
+     * the cells actually viewed.
+     * <p>
+     * As the cells are not evaluated when loaded, type errors are not reported by
+     * {@link #load(String)}. A cell with a type error, or whose evaluation fails otherwise
+     * such as by dividing by zero, instead keeps the default value,
+     * as do the cells that depend on it. Viewing such a cell never throws.
+     *
+     * <pre>
+     * {@code
+     * Sheet sheet = new SheetBuilder(parser, exp)
+     *         .parseLazily(true)
+     *         .load("large.sheep");
+     * }</pre>
+     *
+     * @param lazy Whether to defer parsing the cells of loaded sheets.
+     * @return The current instance of the SheetBuilder.
+     * @see #load(String)
+     */
+    public SheetBuilder parseLazily(boolean lazy) {
+        this.lazy = lazy;
+        return this;
+    }
+
+    /**
+     * Recalculate the cells of constructed sheets in parallel using the given pool.
+     * <p>
+     * After an update, the affected cells are recalculated level by level,
+     * where the cells of a level do not depend on each other.
+     * Large levels are recalculated as concurrent tasks.
+     * The resulting values, and the rollback of updates with type errors,
+     * are identical to recalculating sequentially.
+     * Passing null restores sequential recalculation on the calling thread.
+     *
+     * <pre>
+     * {@code
+     * Sheet sheet = new SheetBuilder(parser, exp)
+     *         .recalculateWith(ForkJoinPool.commonPool())
+     *         .empty(10000, 26);
+     * }</pre>
+     *
+     * @param pool The pool to run recalculation tasks on, or null to recalculate sequentially.
+     * @return The current instance of the SheetBuilder.
+     * @requires the built-ins and parsed expressions may be evaluated by multiple threads at once.
+     */
+    public SheetBuilder recalculateWith(ForkJoinPool pool) {
+        this.recalculationPool = pool;
+        return this;
+    }
+
+    /**
+     * Recalculate the cells of constructed sheets only when their values are needed.
+     * <p>
+     * An update to a lazily recalculated sheet only evaluates the updated cells.
+     * The cells using them are marked out of date, and are recalculated
+     * when their value is next viewed or saved, then remembered until marked again.
+     * Editing a cell used by many cells, of which only a few are ever viewed,
+     * therefore only costs as much as the cells actually viewed.
+     * <p>
+     * Type errors in the updated cells are reported and rolled back as usual.
+     * A type error in a cell using them is only found once that cell is evaluated.
+     * The update is then rejected and rolled back, as an eagerly recalculated sheet would have
+     * rejected it, and reported by {@link Sheet#rejectedUpdates()}.
+     * Until then, viewed values may rely on the update.
+     *
+     * <pre>
+     * {@code
+     * Sheet sheet = new SheetBuilder(parser, exp)
+     *         .recalculateLazily(true)
+     *         .empty(10000, 26);
+     * }</pre>
+     *
+     * @param lazy Whether to defer recalculating the cells using updated cells.
+     * @return The current instance of the SheetBuilder.
+     */
+    public SheetBuilder recalculateLazily(boolean lazy) {
+        this.lazyRecalculation = lazy;
+        return this;
+    }
+
+    private Sheet configure(Sheet sheet) {
+        sheet.recalculateWith(recalculationPool);
+        sheet.recalculateLazily(lazyRecalculation);
+        return sheet;
+    }
+
     /**
      * Construct a new empty sheet with the given number of rows and columns.
      * <p>
@@ -104,7 +255,31 @@ public class SheetBuilder {
      * @return A new sheet with the appropriate built-ins and of the specified dimensions.
      */
     public Sheet empty(int rows, int columns) {
-        return new Sheet(parser, new HashMap<>(builtins), defaultExpression, rows, columns);
+        return configure(new Sheet(parser, new HashMap<>(builtins), defaultExpression,
+                rows, columns));
+    }
+
+    /**
+     * Construct a new empty sheet that only stores the cells written to it.
+     * <p>
+     * The sheet behaves identically to one constructed by {@link #empty(int, int)},
+     * but untouched cells take no memory, so very large and mostly empty
+     * sheets can be created.
+     *
+     * <pre>
+     * {@code
+     * Sheet log = builder.sparse(1000000, 26);
+     * log.update(999999, 0, "42");
+     * }</pre>
+     *
+     * @param rows    Amount of rows for the new sheet.
+     * @param columns Amount of columns for the sheet.
+     * @return A new sheet with the appropriate built-ins and of the specified dimensions.
+     * @requires rows * columns &lt;= Integer.MAX_VALUE
+     */
+    public Sheet sparse(int rows, int columns) {
+        return configure(new Sheet(parser, new HashMap<>(builtins), defaultExpression,
+                rows, columns, new SparseCellStore()));
     }
 
     /**
@@ -113,6 +288,9 @@ public class SheetBuilder {
      * The resulting sheet has as many rows as there are lines in the file,
      * and one more column than there are pipes '|' in the row with the most pipes.
      * Missing trailing columns are filled with the default expression.
+     * <p>
+     * Cells are parsed on the executor given to {@link #parseWith(Executor)}, if any,
+     * or when needed if {@link #parseLazily(boolean)} is set.
      *
      * @param filename The path to file to open.
      * @return The sheet decoded from the file.
@@ -122,33 +300,76 @@ public class SheetBuilder {
      * @stage2
      */
     public Sheet load(String filename) throws FileNotFoundException, ParseException, TypeError {
-        BufferedReader br = new BufferedReader(new FileReader(filename));
-        List<String> lines = new ArrayList<>(br.lines().toList());
-        int rows = lines.size();
-        int cols = lines
-                .stream()
-                .mapToInt(SheetBuilder::countCols)
-                .max()
-                .orElseThrow(() -> new ParseException("File had no valid"));
-
-        Sheet sheet = new Sheet(parser, new HashMap<>(builtins), defaultExpression, rows, cols);
-        List<List<Expression>> expressions = lines.stream()
-                .map(line -> List.of(line.split("\\|")))
-                .map(row -> row.stream()
-                        .map((e) -> parseOr(parser, e, defaultExpression))
-                        .toList())
-                .toList();
-
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < cols; j++) {
-                Expression expression = defaultExpression;
-                if (i < expressions.size() && j < expressions.get(i).size()) {
-                    expression = expressions.get(i).get(j);
+        // chunks are joined in order, so the result matches parsing sequentially
+        List<CompletableFuture<List<Expression[]>>> chunks = new ArrayList<>();
+        List<String[]> sources = new ArrayList<>();
+        int cols = 0;
+        try (SheetReader reader = new SheetReader(filename)) {
+            List<String[]> chunk = new ArrayList<>(PARSE_CHUNK_ROWS);
+            for (String[] row = reader.nextRow(); row != null; row = reader.nextRow()) {
+                cols = Math.max(cols, reader.width());
+                if (lazy) {
+                    sources.add(row);
+                    continue;
+                }
+                chunk.add(row);
+                if (chunk.size() == PARSE_CHUNK_ROWS) {
+                    chunks.add(parseChunk(chunk));
+                    chunk = new ArrayList<>(PARSE_CHUNK_ROWS);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                chunks.add(parseChunk(chunk));
+            }
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (chunks.isEmpty() && sources.isEmpty()) {
+            throw new ParseException("File had no valid");
+        }
+        if (lazy) {
+            Sheet sheet = configure(new Sheet(parser, new HashMap<>(builtins), defaultExpression,
+                    sources.size(), cols));
+            sheet.defer(sources);
+            return sheet;
+        }
+
+        List<Expression[]> expressions = new ArrayList<>();
+        for (CompletableFuture<List<Expression[]>> chunk : chunks) {
+            try {
+                expressions.addAll(chunk.join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
                 }
-                sheet.update(new CellLocation(i, j), expression);
+                throw e;
             }
         }
+
+        Sheet sheet = configure(new Sheet(parser, new HashMap<>(builtins), defaultExpression,
+                expressions.size(), cols));
+        // insert every cell at once, so each is evaluated exactly once in dependency order
+        sheet.fill(expressions);
         return sheet;
     }
 
-}
\ No newline at end of file
+    /**
+     * Load a Sheet from a binary snapshot written by {@link Sheet#writeSnapshot}.
+     * The resulting sheet has the dimensions, formulas and values stored in the snapshot,
+     * and the built-ins, parser and default expression of this builder.
+     *
+     * @param filename The path to the snapshot to open.
+     * @return The sheet stored in the snapshot.
+     * @throws IOException    If the file cannot be read.
+     * @throws ParseException If the file is not a valid snapshot.
+     * @throws TypeError      If any recalculated expression has a type error.
+     */
+    public Sheet loadSnapshot(String filename) throws IOException, ParseException, TypeError {
+        try (InputStream in = new FileInputStream(filename)) {
+            return configure(Snapshot.read(in, parser, new HashMap<>(builtins), defaultExpression));
+        }
+    }
+
+}
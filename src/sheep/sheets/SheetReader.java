@@ -0,0 +1,142 @@
+package sheep.sheets;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming reader of the pipe delimited format written by {@link Sheet#encode()}.
+ * <p>
+ * The file is scanned byte by byte through a fixed size buffer,
+ * one row at a time, without holding the whole file in memory.
+ * Rows end at "\n", "\r" or "\r\n", and cells are separated by "|".
+ * <p>
+ * As with {@link String#split(String)}, trailing empty cells of a row are dropped,
+ * unless the row has no cells other than a single empty one.
+ */
+class SheetReader implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final FileInputStream input;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final List<String> cells = new ArrayList<>();
+    private byte[] cell = new byte[64];
+    private int cellLength = 0;
+    private int width = 0;
+    private boolean skipLineFeed = false;
+    private boolean finished = false;
+
+    /**
+     * Open the file at the given path for reading.
+     *
+     * @param filename The path to file to open.
+     * @throws FileNotFoundException If the file is not found.
+     */
+    SheetReader(String filename) throws FileNotFoundException {
+        this.input = new FileInputStream(filename);
+        this.channel = input.getChannel();
+        buffer.flip();
+    }
+
+    /**
+     * Read the cells of the next row.
+     *
+     * @return The contents of each cell in the next row, or null if there are no more rows.
+     * @throws IOException If the file cannot be read.
+     */
+    String[] nextRow() throws IOException {
+        if (finished) {
+            return null;
+        }
+        cells.clear();
+        width = 1;
+        while (true) {
+            if (!buffer.hasRemaining() && !fill()) {
+                finished = true;
+                if (cellLength == 0 && width == 1) {
+                    // no bytes after the final line terminator
+                    return null;
+                }
+                return finishRow();
+            }
+            byte next = buffer.get();
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (next == '\n') {
+                    continue;
+                }
+            }
+            switch (next) {
+                case '|' -> {
+                    finishCell();
+                    width++;
+                }
+                case '\r' -> {
+                    skipLineFeed = true;
+                    return finishRow();
+                }
+                case '\n' -> {
+                    return finishRow();
+                }
+                default -> append(next);
+            }
+        }
+    }
+
+    /**
+     * The number of columns in the row last returned by {@link #nextRow()},
+     * that is, one more than the number of pipes in the row.
+     * Unlike the returned cells, this includes trailing empty cells.
+     *
+     * @return The number of columns in the last row read.
+     */
+    int width() {
+        return width;
+    }
+
+    private boolean fill() throws IOException {
+        buffer.clear();
+        int read = channel.read(buffer);
+        buffer.flip();
+        return read > 0;
+    }
+
+    private void append(byte next) {
+        if (cellLength == cell.length) {
+            cell = Arrays.copyOf(cell, cell.length * 2);
+        }
+        cell[cellLength++] = next;
+    }
+
+    private void finishCell() {
+        cells.add(new String(cell, 0, cellLength, StandardCharsets.UTF_8));
+        cellLength = 0;
+    }
+
+    private String[] finishRow() {
+        finishCell();
+        int size = cells.size();
+        while (size > 1 && cells.get(size - 1).isEmpty()) {
+            size--;
+        }
+        if (size == 1 && width > 1 && cells.get(0).isEmpty()) {
+            size = 0;
+        }
+        return cells.subList(0, size).toArray(new String[0]);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (input) {
+            channel.close();
+        }
+    }
+}
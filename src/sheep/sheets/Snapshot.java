@@ -0,0 +1,423 @@
+package sheep.sheets;
+
+import sheep.expression.Expression;
+import sheep.expression.TypeError;
+import sheep.expression.arithmetic.Operation;
+import sheep.expression.basic.Constant;
+import sheep.expression.basic.Nothing;
+import sheep.expression.basic.Reference;
+import sheep.parsing.ParseException;
+import sheep.parsing.Parser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary snapshot format of a {@link Sheet}, conventionally stored in ".sheepb" files.
+ * <p>
+ * Unlike {@link Sheet#encode()}, a snapshot stores the computed value of every cell
+ * and the dependency graph alongside the formulas,
+ * so a sheet can be reopened without parsing or recalculating.
+ * <p>
+ * A snapshot is laid out as:
+ * <ol>
+ *     <li>the magic number and format version;</li>
+ *     <li>whether the sheet is sparse, and its rows and columns;</li>
+ *     <li>a table of every distinct expression, children before their parents;</li>
+ *     <li>the formula, value and usages of each cell that differs from the default,
+ *     referring to expressions by their position in the table;</li>
+ *     <li>a CRC-32 checksum of everything before it.</li>
+ * </ol>
+ * Expressions other than the core expressions are stored as their rendered formula
+ * and parsed when read. Such values cannot be stored, so those cells are
+ * recalculated when the snapshot is read.
+ * <p>
+ * Text is stored as its length in bytes followed by its UTF-8 encoding.
+ * Version 1 snapshots, which stored text in modified UTF-8 and so could not store
+ * formulas of 64 KB or more, can still be read.
+ */
+final class Snapshot {
+    /**
+     * The first four bytes of every snapshot, "SHPB".
+     */
+    static final int MAGIC = 0x53485042;
+
+    /**
+     * The version of the format written by this class.
+     */
+    static final short VERSION = 2;
+
+    /**
+     * The earliest version of the format that can be read.
+     */
+    static final short OLDEST_VERSION = 1;
+
+    private static final byte NOTHING = 0;
+    private static final byte CONSTANT = 1;
+    private static final byte REFERENCE = 2;
+    private static final byte OPERATION = 3;
+    private static final byte SOURCE = 4;
+
+    /**
+     * Marks a value that was not stored and must be recalculated.
+     */
+    private static final int MISSING = -1;
+
+    private Snapshot() {
+    }
+
+    /**
+     * Write a snapshot of the sheet's cells to the output stream.
+     * The stream is flushed but not closed.
+     *
+     * @param out     The stream to write the snapshot to.
+     * @param rows    The number of rows in the sheet.
+     * @param columns The number of columns in the sheet.
+     * @param cells   The storage of the sheet's cells.
+     * @throws IOException If the stream cannot be written to.
+     */
+    static void write(OutputStream out, int rows, int columns, CellStore cells)
+            throws IOException {
+        CheckedOutputStream checked = new CheckedOutputStream(out, new CRC32());
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(checked));
+        data.writeInt(MAGIC);
+        data.writeShort(VERSION);
+        data.writeBoolean(cells instanceof SparseCellStore);
+        data.writeInt(rows);
+        data.writeInt(columns);
+
+        int[] formulaIndices = cells.formulaIndices();
+        int[] valueIndices = cells.valueIndices();
+        int[] usageIndices = cells.usageIndices();
+
+        // bound formulas are stored as the formulas they represent
+        Expression[] formulas = new Expression[formulaIndices.length];
+        for (int i = 0; i < formulaIndices.length; i++) {
+            Expression formula = cells.formula(formulaIndices[i]);
+            formulas[i] = formula instanceof SharedFormula shared ? shared.formula() : formula;
+        }
+
+        ExpressionTable table = new ExpressionTable();
+        for (Expression formula : formulas) {
+            table.add(formula, true);
+        }
+        for (int index : valueIndices) {
+            table.add(cells.value(index), false);
+        }
+        table.write(data);
+
+        data.writeInt(formulaIndices.length);
+        for (int i = 0; i < formulaIndices.length; i++) {
+            data.writeInt(formulaIndices[i]);
+            data.writeInt(table.id(formulas[i]));
+        }
+        data.writeInt(valueIndices.length);
+        for (int index : valueIndices) {
+            data.writeInt(index);
+            data.writeInt(table.id(cells.value(index)));
+        }
+        data.writeInt(usageIndices.length);
+        for (int index : usageIndices) {
+            Set<Integer> usages = cells.usages(index);
+            data.writeInt(index);
+            data.writeInt(usages.size());
+            for (int usage : usages) {
+                data.writeInt(usage);
+            }
+        }
+        data.flush();
+
+        // the checksum covers everything written so far, so it bypasses the checked stream
+        DataOutputStream trailer = new DataOutputStream(out);
+        trailer.writeLong(checked.getChecksum().getValue());
+        trailer.flush();
+    }
+
+    /**
+     * Read a snapshot from the input stream into a new sheet.
+     *
+     * @param in                The stream to read the snapshot from.
+     * @param parser            The parser of the new sheet,
+     *                          also used for formulas stored as text.
+     * @param builtins          The built-ins of the new sheet.
+     * @param defaultExpression The default expression of the new sheet.
+     * @return The sheet stored in the snapshot.
+     * @throws IOException    If the stream cannot be read.
+     * @throws ParseException If the stream is not a valid snapshot.
+     * @throws TypeError      If a cell whose value was not stored has a type error.
+     */
+    static Sheet read(InputStream in, Parser parser, Map<String, Expression> builtins,
+                      Expression defaultExpression)
+            throws IOException, ParseException, TypeError {
+        BufferedInputStream buffered = new BufferedInputStream(in);
+        CheckedInputStream checked = new CheckedInputStream(buffered, new CRC32());
+        DataInputStream data = new DataInputStream(checked);
+        try {
+            if (data.readInt() != MAGIC) {
+                throw new ParseException("Not a sheet snapshot");
+            }
+            short version = data.readShort();
+            if (version < OLDEST_VERSION || version > VERSION) {
+                throw new ParseException("Unsupported snapshot version: " + version);
+            }
+            boolean sparse = data.readBoolean();
+            int rows = data.readInt();
+            int columns = data.readInt();
+            if (rows <= 0 || columns <= 0 || columns > 26
+                    || (long) rows * columns > Integer.MAX_VALUE) {
+                throw new ParseException("Invalid snapshot dimensions: " + rows + "x" + columns);
+            }
+            int size = rows * columns;
+
+            CellStore cells = sparse ? new SparseCellStore() : new DenseCellStore(size);
+            Sheet sheet = new Sheet(parser, builtins, defaultExpression, rows, columns, cells);
+            List<Expression> table = readTable(data, version, parser, defaultExpression);
+
+            int formulaCount = readCount(data, size);
+            for (int i = 0; i < formulaCount; i++) {
+                int index = readIndex(data, size);
+                cells.setFormula(index, sheet.bind(index, readExpression(data, table)));
+            }
+
+            List<Integer> missing = new ArrayList<>();
+            int valueCount = readCount(data, size);
+            for (int i = 0; i < valueCount; i++) {
+                int index = readIndex(data, size);
+                int id = data.readInt();
+                if (id == MISSING) {
+                    missing.add(index);
+                } else {
+                    cells.setValue(index, expression(table, id));
+                }
+            }
+
+            int usageCount = readCount(data, size);
+            for (int i = 0; i < usageCount; i++) {
+                int index = readIndex(data, size);
+                int count = readCount(data, size);
+                Set<Integer> usages = new HashSet<>(count);
+                for (int j = 0; j < count; j++) {
+                    usages.add(readIndex(data, size));
+                }
+                cells.setUsages(index, usages);
+            }
+
+            long expected = checked.getChecksum().getValue();
+            if (new DataInputStream(buffered).readLong() != expected) {
+                throw new ParseException("Snapshot checksum does not match");
+            }
+
+            sheet.order();
+            sheet.refresh(missing);
+            return sheet;
+        } catch (EOFException e) {
+            throw new ParseException("Snapshot is truncated");
+        }
+    }
+
+    private static int readCount(DataInputStream data, int limit)
+            throws IOException, ParseException {
+        int count = data.readInt();
+        if (count < 0 || count > limit) {
+            throw new ParseException("Invalid snapshot count: " + count);
+        }
+        return count;
+    }
+
+    private static int readIndex(DataInputStream data, int size)
+            throws IOException, ParseException {
+        int index = data.readInt();
+        if (index < 0 || index >= size) {
+            throw new ParseException("Invalid snapshot cell index: " + index);
+        }
+        return index;
+    }
+
+    private static Expression expression(List<Expression> table, int id) throws ParseException {
+        if (id < 0 || id >= table.size()) {
+            throw new ParseException("Invalid snapshot expression: " + id);
+        }
+        return table.get(id);
+    }
+
+    private static Expression readExpression(DataInputStream data, List<Expression> table)
+            throws IOException, ParseException {
+        return expression(table, data.readInt());
+    }
+
+    private static List<Expression> readTable(DataInputStream data, short version, Parser parser,
+                                              Expression defaultExpression)
+            throws IOException, ParseException {
+        int size = data.readInt();
+        if (size < 0) {
+            throw new ParseException("Invalid snapshot expression count: " + size);
+        }
+        List<Expression> table = new ArrayList<>(Math.min(size, 1 << 16));
+        for (int id = 0; id < size; id++) {
+            byte tag = data.readByte();
+            table.add(switch (tag) {
+                case NOTHING -> new Nothing();
+                case CONSTANT -> new Constant(data.readLong());
+                case REFERENCE -> new Reference(readText(data, version));
+                case OPERATION -> {
+                    String operator = readText(data, version);
+                    int arity = data.readInt();
+                    if (arity < 1) {
+                        throw new ParseException("Invalid snapshot operator arity: " + arity);
+                    }
+                    List<Expression> arguments = new ArrayList<>();
+                    for (int i = 0; i < arity; i++) {
+                        // children always precede their parent in the table
+                        int child = data.readInt();
+                        if (child < 0 || child >= id) {
+                            throw new ParseException("Invalid snapshot expression: " + child);
+                        }
+                        arguments.add(table.get(child));
+                    }
+                    try {
+                        yield Operation.build(operator, arguments.toArray(new Expression[0]));
+                    } catch (RuntimeException e) {
+                        throw new ParseException("Unknown snapshot operator: " + operator);
+                    }
+                }
+                case SOURCE -> {
+                    String source = readText(data, version);
+                    try {
+                        yield parser.parse(source);
+                    } catch (ParseException e) {
+                        yield defaultExpression;
+                    }
+                }
+                default -> throw new ParseException("Invalid snapshot expression tag: " + tag);
+            });
+        }
+        return table;
+    }
+
+    private static String readText(DataInputStream data, short version)
+            throws IOException, ParseException {
+        if (version == 1) {
+            return data.readUTF();
+        }
+        int length = data.readInt();
+        if (length < 0) {
+            throw new ParseException("Invalid snapshot text length: " + length);
+        }
+        // read as the bytes arrive, so a corrupt length cannot allocate more than the stream holds
+        byte[] bytes = data.readNBytes(length);
+        if (bytes.length < length) {
+            throw new EOFException();
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeText(DataOutputStream data, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+    /**
+     * The distinct expressions of a sheet, numbered in the order they are written.
+     * Expressions are distinguished by equality, so equal formulas of different cells,
+     * such as those constructed from a shared template, are written once.
+     */
+    private static class ExpressionTable {
+        private final Map<Expression, Integer> ids = new HashMap<>();
+        private final List<Expression> expressions = new ArrayList<>();
+        private final Set<Expression> sources = new HashSet<>();
+
+        /**
+         * Number the expression, and its sub-expressions before it, if not yet numbered.
+         * Expressions other than the core expressions are only stored
+         * if they are formulas, in which case they are stored as text.
+         */
+        private void add(Expression expression, boolean formula) {
+            if (ids.containsKey(expression)) {
+                return;
+            }
+            if (!isCore(expression)) {
+                if (formula) {
+                    sources.add(expression);
+                    number(expression);
+                }
+                return;
+            }
+            if (expression instanceof Operation operation) {
+                List<Expression> arguments = operation.getExpressions();
+                for (Expression argument : arguments) {
+                    add(argument, formula);
+                }
+                // a sub-expression that cannot be stored makes its parent text too
+                for (Expression argument : arguments) {
+                    if (!ids.containsKey(argument) || sources.contains(argument)) {
+                        if (formula) {
+                            sources.add(expression);
+                            number(expression);
+                        }
+                        return;
+                    }
+                }
+            }
+            number(expression);
+        }
+
+        private void number(Expression expression) {
+            ids.put(expression, expressions.size());
+            expressions.add(expression);
+        }
+
+        private static boolean isCore(Expression expression) {
+            return expression instanceof Operation operation && Template.rebuildable(operation)
+                    || expression.getClass() == Constant.class
+                    || expression.getClass() == Nothing.class
+                    || expression.getClass() == Reference.class;
+        }
+
+        private int id(Expression expression) {
+            return ids.getOrDefault(expression, MISSING);
+        }
+
+        private void write(DataOutputStream data) throws IOException {
+            data.writeInt(expressions.size());
+            for (Expression expression : expressions) {
+                if (sources.contains(expression)) {
+                    data.writeByte(SOURCE);
+                    writeText(data, expression.render());
+                } else if (expression instanceof Operation operation) {
+                    List<Expression> arguments = operation.getExpressions();
+                    data.writeByte(OPERATION);
+                    writeText(data, operation.getOperator());
+                    data.writeInt(arguments.size());
+                    for (Expression argument : arguments) {
+                        data.writeInt(id(argument));
+                    }
+                } else if (expression instanceof Constant constant) {
+                    data.writeByte(CONSTANT);
+                    data.writeLong(constant.getValue());
+                } else if (expression instanceof Reference reference) {
+                    data.writeByte(REFERENCE);
+                    writeText(data, reference.getIdentifier());
+                } else {
+                    data.writeByte(NOTHING);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package sheep.sheets;
+
+import sheep.expression.Expression;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Cell storage that only holds the cells which have been written to.
+ * <p>
+ * Untouched cells take no memory, so a sheet may have millions of rows
+ * as long as few of them are filled.
+ */
+class SparseCellStore implements CellStore {
+    private final Map<Integer, Cell> cells = new HashMap<>();
+
+    /**
+     * The state of a single occupied cell.
+     */
+    private static class Cell {
+        private Expression formula;
+        private Expression value;
+        private Set<Integer> usages;
+        private int height;
+
+        private boolean isEmpty() {
+            return formula == null && value == null && usages == null && height == 0;
+        }
+    }
+
+    private Cell cell(int index) {
+        return cells.computeIfAbsent(index, ignored -> new Cell());
+    }
+
+    private void compact(int index, Cell cell) {
+        if (cell.isEmpty()) {
+            cells.remove(index);
+        }
+    }
+
+    @Override
+    public Expression formula(int index) {
+        Cell cell = cells.get(index);
+        return cell == null ? null : cell.formula;
+    }
+
+    @Override
+    public void setFormula(int index, Expression formula) {
+        Cell cell = cell(index);
+        cell.formula = formula;
+        compact(index, cell);
+    }
+
+    @Override
+    public Expression value(int index) {
+        Cell cell = cells.get(index);
+        return cell == null ? null : cell.value;
+    }
+
+    @Override
+    public void setValue(int index, Expression value) {
+        Cell cell = cell(index);
+        cell.value = value;
+        compact(index, cell);
+    }
+
+    @Override
+    public Set<Integer> usages(int index) {
+        Cell cell = cells.get(index);
+        return cell == null ? null : cell.usages;
+    }
+
+    @Override
+    public void setUsages(int index, Set<Integer> usages) {
+        Cell cell = cell(index);
+        cell.usages = usages;
+        compact(index, cell);
+    }
+
+    @Override
+    public int height(int index) {
+        Cell cell = cells.get(index);
+        return cell == null ? 0 : cell.height;
+    }
+
+    @Override
+    public void setHeight(int index, int height) {
+        if (height == 0 && !cells.containsKey(index)) {
+            return;
+        }
+        Cell cell = cell(index);
+        cell.height = height;
+        compact(index, cell);
+    }
+
+    @Override
+    public int[] formulaIndices() {
+        return occupied(cell -> cell.formula != null);
+    }
+
+    @Override
+    public int[] valueIndices() {
+        return occupied(cell -> cell.value != null);
+    }
+
+    @Override
+    public int[] usageIndices() {
+        return occupied(cell -> cell.usages != null);
+    }
+
+    private int[] occupied(Predicate<Cell> holds) {
+        return cells.entrySet().stream()
+                .filter(entry -> holds.test(entry.getValue()))
+                .mapToInt(Map.Entry::getKey)
+                .sorted()
+                .toArray();
+    }
+}
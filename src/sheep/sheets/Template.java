@@ -0,0 +1,502 @@
+package sheep.sheets;
+
+import sheep.expression.EvaluationContext;
+import sheep.expression.Expression;
+import sheep.expression.TypeError;
+import sheep.expression.arithmetic.Operation;
+import sheep.expression.basic.Constant;
+import sheep.expression.basic.Reference;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongBinaryOperator;
+import java.util.function.ToIntFunction;
+
+/**
+ * A formula with its cell references stored relative to the cell holding it,
+ * in the manner of R1C1 references.
+ * <p>
+ * Cells whose formulas differ only by where they are, such as {@code A1 + A0} in A2
+ * and {@code A2 + A1} in A3, have equal templates, so a run of such cells can share
+ * a single template instead of each holding its own expression tree.
+ * <p>
+ * The references of a template are bound when it is constructed:
+ * references to cells become offsets or cell locations,
+ * and references to built-ins become slots numbered by the sheet.
+ * A template is evaluated directly against the cell values at its offsets
+ * and the built-in slots, without constructing the expression or resolving
+ * reference names.
+ * <p>
+ * The evaluated form of a template is simplified: constant sub-formulas are folded,
+ * parentheses are dropped and nested additions, multiplications and subtractions are flattened.
+ * The formula the template represents is still constructed as it was written.
+ */
+final class Template {
+    /**
+     * The class {@link Operation#build} constructs for each operator,
+     * as only operations it can reconstruct can be stored in a template.
+     */
+    private static final Map<String, Class<?>> BUILT = new ConcurrentHashMap<>();
+
+    /*
+     * Operators whose nested uses may be flattened, either anywhere or only as the first argument,
+     * and operators that have the value of their argument when they have exactly one.
+     * Flattening must keep both the value and the error: subtraction evaluates its arguments
+     * in order and raises nothing of its own, but division only raises a division by zero
+     * after evaluating all of its arguments, so (1 / 0) / A1 and 1 / 0 / A1 may raise
+     * different errors and division is never flattened.
+     */
+    private static final Set<String> ASSOCIATIVE = Set.of("+", "*");
+    private static final Set<String> LEFT_ASSOCIATIVE = Set.of("-");
+    private static final Set<String> UNARY = Set.of("", ",");
+
+    /**
+     * The values of cells, by their row and column, and of built-ins, by their slot.
+     */
+    interface CellValues {
+        /**
+         * The value of the cell at the row and column.
+         *
+         * @param row    The row of the cell.
+         * @param column The column of the cell.
+         * @return The value of the cell.
+         * @requires the row and column are within the sheet.
+         */
+        Expression valueAt(int row, int column);
+
+        /**
+         * The value bound to the built-in in the slot.
+         *
+         * @param slot The slot of the built-in.
+         * @return The value of the built-in.
+         * @requires the slot was given for a built-in when the template was constructed.
+         */
+        Expression builtinAt(int slot);
+    }
+
+    private sealed interface Node permits Value, Cell, Fixed, Name, Apply {
+    }
+
+    private record Value(long value) implements Node {
+    }
+
+    private record Cell(int rowOffset, int columnOffset) implements Node {
+    }
+
+    /*
+     * A reference to a cell written in a form other than its canonical name, such as A01.
+     * It must keep its spelling, so it is not moved with the cell holding it.
+     */
+    private record Fixed(String identifier, int row, int column) implements Node {
+    }
+
+    /*
+     * A reference to a built-in, or to nothing if the slot is negative.
+     */
+    private record Name(String identifier, int slot) implements Node {
+    }
+
+    /*
+     * The operation is only used to perform the operator, so it is not part of equality.
+     */
+    private record Apply(String operator, List<Node> arguments, Operation operation)
+            implements Node {
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Apply apply
+                    && operator.equals(apply.operator) && arguments.equals(apply.arguments);
+        }
+
+        @Override
+        public int hashCode() {
+            return operator.hashCode() * 31 + arguments.hashCode();
+        }
+    }
+
+    /*
+     * The root is the formula as written, while the compiled form is what is evaluated.
+     */
+    private final Node root;
+    private final Node compiled;
+
+    private Template(Node root) {
+        this.root = root;
+        this.compiled = simplify(root);
+    }
+
+    /**
+     * Construct the template of a formula held by the cell at the row and column.
+     * <p>
+     * Only formulas built from operations, constants and references can be templates,
+     * and only those that are an operation, or a reference to some cell or built-in.
+     * An operation of constants alone, such as {@code 2 * 3}, is a template
+     * so that it is stored simplified like any other.
+     * References to cells within the sheet become offsets from the cell,
+     * references to built-ins become their slots,
+     * and any other reference is bound to nothing.
+     *
+     * @param formula  The formula to construct a template of.
+     * @param row      The row of the cell holding the formula.
+     * @param column   The column of the cell holding the formula.
+     * @param rows     The number of rows in the sheet.
+     * @param columns  The number of columns in the sheet.
+     * @param builtins The slot of each built-in identifier, or -1 if it is not a built-in.
+     * @return The template of the formula, or null if it cannot be a template.
+     */
+    static Template of(Expression formula, int row, int column, int rows, int columns,
+                       ToIntFunction<String> builtins) {
+        if (!(formula instanceof Operation) && formula.getClass() != Reference.class) {
+            return null;
+        }
+        Node root = new Binder(row, column, rows, columns, builtins).node(formula);
+        if (root == null || !(root instanceof Apply) && !refers(root)) {
+            return null;
+        }
+        return new Template(root);
+    }
+
+    private record Binder(int row, int column, int rows, int columns,
+                          ToIntFunction<String> builtins) {
+        private Node node(Expression expression) {
+            if (expression.getClass() == Constant.class) {
+                return new Value(((Constant) expression).getValue());
+            }
+            if (expression.getClass() == Reference.class) {
+                return reference(((Reference) expression).getIdentifier());
+            }
+            if (expression instanceof Operation operation && rebuildable(operation)) {
+                List<Expression> arguments = operation.getExpressions();
+                Node[] nodes = new Node[arguments.size()];
+                for (int i = 0; i < nodes.length; i++) {
+                    nodes[i] = node(arguments.get(i));
+                    if (nodes[i] == null) {
+                        return null;
+                    }
+                }
+                return new Apply(operation.getOperator(), List.of(nodes), operation);
+            }
+            return null;
+        }
+
+        /*
+         * Resolves a reference as a sheet would: cells within the sheet first, then built-ins.
+         */
+        private Node reference(String identifier) {
+            Optional<CellLocation> location = CellLocation.maybeReference(identifier);
+            if (location.isPresent() && location.get().getRow() < rows
+                    && location.get().getColumn() < columns) {
+                int cellRow = location.get().getRow();
+                int cellColumn = location.get().getColumn();
+                if (location.get().toString().equals(identifier)) {
+                    return new Cell(cellRow - row, cellColumn - column);
+                }
+                return new Fixed(identifier, cellRow, cellColumn);
+            }
+            return new Name(identifier, builtins.applyAsInt(identifier));
+        }
+    }
+
+    /**
+     * Whether {@link Operation#build} constructs operations of the same class as the operation,
+     * so the operation may be rebuilt from its operator and arguments.
+     *
+     * @param operation The operation to rebuild.
+     * @return True if building the operator gives an operation of the same class.
+     */
+    static boolean rebuildable(Operation operation) {
+        Class<?> built = BUILT.computeIfAbsent(operation.getOperator(), operator -> {
+            try {
+                return Operation.build(operator, new Expression[0]).getClass();
+            } catch (RuntimeException e) {
+                return Void.class;
+            }
+        });
+        return built == operation.getClass();
+    }
+
+    /*
+     * Whether the node refers to a cell or built-in.
+     * A lone reference to nothing does not, as it evaluates to itself rather than a number.
+     */
+    private static boolean refers(Node node) {
+        return switch (node) {
+            case Value value -> false;
+            case Cell cell -> true;
+            case Fixed fixed -> true;
+            case Name name -> name.slot() >= 0;
+            case Apply apply -> apply.arguments().stream().anyMatch(Template::refers);
+        };
+    }
+
+    /*
+     * Simplifies a node without changing its value or which error evaluating it raises.
+     * Sub-formulas that would raise an error, such as 1 / 0, are kept to be evaluated.
+     */
+    private static Node simplify(Node node) {
+        if (!(node instanceof Apply apply)) {
+            return node;
+        }
+        String operator = apply.operator();
+        List<Node> arguments = new ArrayList<>(apply.arguments().size());
+        for (Node argument : apply.arguments()) {
+            Node simple = simplify(argument);
+            if (simple instanceof Apply inner && inner.operator().equals(operator)
+                    && !inner.arguments().isEmpty()
+                    && (ASSOCIATIVE.contains(operator)
+                    || (LEFT_ASSOCIATIVE.contains(operator) && arguments.isEmpty()))) {
+                // A + (B + C) is A + B + C, and (A - B) - C is A - B - C, but (A / B) / C is kept
+                arguments.addAll(inner.arguments());
+            } else {
+                arguments.add(simple);
+            }
+        }
+        if (arguments.size() == 1 && UNARY.contains(operator)) {
+            // the value of (A) and of a list of just A is the value of A
+            return arguments.get(0);
+        }
+        if (ASSOCIATIVE.contains(operator)) {
+            // constants may be combined in any order, as overflow wraps around
+            List<Node> constants = new ArrayList<>();
+            arguments.removeIf(argument -> argument instanceof Value && constants.add(argument));
+            if (constants.size() > 1) {
+                arguments.add(fold(apply, constants));
+            } else {
+                arguments.addAll(constants);
+            }
+        }
+        return fold(apply, arguments);
+    }
+
+    private static Node fold(Apply apply, List<Node> arguments) {
+        for (Node argument : arguments) {
+            if (!(argument instanceof Value)) {
+                return new Apply(apply.operator(), List.copyOf(arguments), apply.operation());
+            }
+        }
+        Operation operation = apply.operation();
+        LongBinaryOperator combiner = operation.combiner();
+        try {
+            if (combiner != null && !arguments.isEmpty()) {
+                long result = ((Value) arguments.get(0)).value();
+                for (int i = 1; i < arguments.size(); i++) {
+                    result = combiner.applyAsLong(result, ((Value) arguments.get(i)).value());
+                }
+                return new Value(result);
+            }
+            long[] values = new long[arguments.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = ((Value) arguments.get(i)).value();
+            }
+            return new Value(operation.apply(values));
+        } catch (RuntimeException e) {
+            // such as dividing by zero, which must fail when evaluated
+            return new Apply(apply.operator(), List.copyOf(arguments), apply.operation());
+        }
+    }
+
+    /**
+     * The number of parts of this template evaluated for each cell,
+     * after it has been simplified.
+     *
+     * @return The number of nodes in the evaluated form of this template.
+     */
+    int size() {
+        return size(compiled);
+    }
+
+    private static int size(Node node) {
+        int size = 1;
+        if (node instanceof Apply apply) {
+            for (Node argument : apply.arguments()) {
+                size += size(argument);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Construct the formula this template represents in the cell at the row and column.
+     *
+     * @param row    The row of the cell.
+     * @param column The column of the cell.
+     * @return The formula of the cell.
+     */
+    Expression instantiate(int row, int column) {
+        return instantiate(root, row, column);
+    }
+
+    private static Expression instantiate(Node node, int row, int column) {
+        return switch (node) {
+            case Value value -> new Constant(value.value());
+            case Cell cell -> new Reference(new CellLocation(row + cell.rowOffset(),
+                    column + cell.columnOffset()).toString());
+            case Fixed fixed -> new Reference(fixed.identifier());
+            case Name name -> new Reference(name.identifier());
+            case Apply apply -> {
+                Expression[] arguments = new Expression[apply.arguments().size()];
+                for (int i = 0; i < arguments.length; i++) {
+                    arguments[i] = instantiate(apply.arguments().get(i), row, column);
+                }
+                yield Operation.build(apply.operator(), arguments);
+            }
+        };
+    }
+
+    /**
+     * The identifiers this template refers to in the cell at the row and column,
+     * as given by {@link Expression#dependencies()}.
+     *
+     * @param row    The row of the cell.
+     * @param column The column of the cell.
+     * @return The identifiers the formula of the cell depends on.
+     */
+    Set<String> dependencies(int row, int column) {
+        Set<String> dependencies = new HashSet<>();
+        dependencies(root, row, column, dependencies);
+        return dependencies;
+    }
+
+    private static void dependencies(Node node, int row, int column, Set<String> dependencies) {
+        switch (node) {
+            case Value value -> {
+            }
+            case Cell cell -> dependencies.add(new CellLocation(row + cell.rowOffset(),
+                    column + cell.columnOffset()).toString());
+            case Fixed fixed -> dependencies.add(fixed.identifier());
+            case Name name -> dependencies.add(name.identifier());
+            case Apply apply -> {
+                for (Node argument : apply.arguments()) {
+                    dependencies(argument, row, column, dependencies);
+                }
+            }
+        }
+    }
+
+    /**
+     * The indices of the cells this template refers to in the cell at the row and column,
+     * where the index of a cell is {@code row * columns + column}.
+     *
+     * @param row     The row of the cell.
+     * @param column  The column of the cell.
+     * @param columns The number of columns in the sheet.
+     * @return The distinct indices of the cells the formula of the cell depends on,
+     *         in ascending order.
+     */
+    int[] cells(int row, int column, int columns) {
+        Set<Integer> cells = new HashSet<>();
+        cells(root, row, column, columns, cells);
+        return cells.stream().mapToInt(Integer::intValue).sorted().toArray();
+    }
+
+    private static void cells(Node node, int row, int column, int columns, Set<Integer> cells) {
+        switch (node) {
+            case Cell cell -> cells.add((row + cell.rowOffset()) * columns
+                    + column + cell.columnOffset());
+            case Fixed fixed -> cells.add(fixed.row() * columns + fixed.column());
+            case Apply apply -> {
+                for (Node argument : apply.arguments()) {
+                    cells(argument, row, column, columns, cells);
+                }
+            }
+            case Value value -> {
+            }
+            case Name name -> {
+            }
+        }
+    }
+
+    /**
+     * The result of evaluating the formula this template represents in the cell
+     * at the row and column, identical to evaluating the formula itself.
+     *
+     * @param row     The row of the cell.
+     * @param column  The column of the cell.
+     * @param context The identifiers resolvable during evaluation.
+     * @param cells   The values of the cells the template refers to.
+     * @return The value of the formula.
+     * @throws TypeError If the formula has a type error.
+     */
+    Expression value(int row, int column, EvaluationContext context, CellValues cells)
+            throws TypeError {
+        return switch (root) {
+            case Cell cell -> cells.valueAt(row + cell.rowOffset(), column + cell.columnOffset())
+                    .value(context);
+            case Fixed fixed -> cells.valueAt(fixed.row(), fixed.column()).value(context);
+            case Name name -> cells.builtinAt(name.slot()).value(context);
+            // the simplified form of an operation, such as (A1), is still a number
+            default -> new Constant(number(compiled, row, column, context, cells));
+        };
+    }
+
+    private static long number(Node node, int row, int column, EvaluationContext context,
+                               CellValues cells) throws TypeError {
+        return switch (node) {
+            case Value value -> value.value();
+            case Cell cell -> cells.valueAt(row + cell.rowOffset(), column + cell.columnOffset())
+                    .number(context);
+            case Fixed fixed -> cells.valueAt(fixed.row(), fixed.column()).number(context);
+            case Name name -> {
+                if (name.slot() < 0) {
+                    // an unbound reference is never a number
+                    throw new TypeError();
+                }
+                yield cells.builtinAt(name.slot()).number(context);
+            }
+            case Apply apply -> {
+                LongBinaryOperator combiner = apply.operation().combiner();
+                yield combiner != null && !apply.arguments().isEmpty()
+                        ? combine(apply, combiner, row, column, context, cells)
+                        : perform(apply, row, column, context, cells);
+            }
+        };
+    }
+
+    /*
+     * Combines the values of the arguments as they are found, without collecting them.
+     */
+    private static long combine(Apply apply, LongBinaryOperator combiner, int row, int column,
+                                EvaluationContext context, CellValues cells) throws TypeError {
+        List<Node> arguments = apply.arguments();
+        long result = number(arguments.get(0), row, column, context, cells);
+        ArithmeticException failure = null;
+        for (int i = 1; i < arguments.size(); i++) {
+            long value = number(arguments.get(i), row, column, context, cells);
+            if (failure == null) {
+                try {
+                    result = combiner.applyAsLong(result, value);
+                } catch (ArithmeticException e) {
+                    // a later argument may still have a type error, which takes precedence
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return result;
+    }
+
+    private static long perform(Apply apply, int row, int column, EvaluationContext context,
+                                CellValues cells) throws TypeError {
+        long[] values = new long[apply.arguments().size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = number(apply.arguments().get(i), row, column, context, cells);
+        }
+        return apply.operation().apply(values);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Template template && root.equals(template.root);
+    }
+
+    @Override
+    public int hashCode() {
+        return root.hashCode();
+    }
+}
@@ -0,0 +1,55 @@
+package sheep.expression;
+
+import org.junit.Before;
+import org.junit.Test;
+import sheep.expression.arithmetic.Operation;
+import sheep.expression.basic.Constant;
+import sheep.expression.basic.Reference;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class EvaluationContextTest {
+    private Map<String, Expression> state;
+    private EvaluationContext context;
+
+    @Before
+    public void setUp() {
+        state = new HashMap<>();
+        state.put("A1", new Constant(4));
+        state.put("hundred", new Constant(100));
+        context = EvaluationContext.of(state);
+    }
+
+    @Test
+    public void testLookup() {
+        assertEquals("Context did not resolve a bound identifier.",
+                new Constant(4), context.lookup("A1"));
+        assertNull("Context resolved an unbound identifier.", context.lookup("A2"));
+    }
+
+    @Test
+    public void testAsMap() {
+        assertSame("Map backed context did not expose its map.", state, context.asMap());
+    }
+
+    @Test
+    public void testReferenceValue() throws TypeError {
+        assertEquals("Reference did not resolve through the context.",
+                new Constant(100), new Reference("hundred").value(context));
+        assertEquals("Unbound reference did not evaluate to itself.",
+                new Reference("B2"), new Reference("B2").value(context));
+    }
+
+    @Test
+    public void testOperationAgreesWithMap() throws TypeError {
+        Expression plus = Operation.plus(new Expression[]{
+                new Reference("A1"), new Reference("hundred"), new Constant(1)});
+        assertEquals("Evaluating through a context did not agree with evaluating through a map.",
+                plus.value(state), plus.value(context));
+        assertEquals("Operation evaluated to the incorrect value.",
+                new Constant(105), plus.value(context));
+    }
+}
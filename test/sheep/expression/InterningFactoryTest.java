@@ -0,0 +1,109 @@
+package sheep.expression;
+
+import org.junit.Before;
+import org.junit.Test;
+import sheep.expression.arithmetic.Operation;
+import sheep.parsing.ComplexParser;
+import sheep.parsing.ParseException;
+import sheep.parsing.Parser;
+
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class InterningFactoryTest {
+    private InterningFactory factory;
+
+    @Before
+    public void setUp() {
+        factory = new InterningFactory(new CoreFactory());
+    }
+
+    @Test
+    public void testSharedLeaves() {
+        assertSame("Equal references were not shared.",
+                factory.createReference("A1"), factory.createReference("A1"));
+        assertSame("Equal constants were not shared.",
+                factory.createConstant(3), factory.createConstant(3));
+        assertSame("Empty expressions were not shared.",
+                factory.createEmpty(), factory.createEmpty());
+        assertNotSame("Different references were shared.",
+                factory.createReference("A1"), factory.createReference("A2"));
+    }
+
+    @Test
+    public void testSharedOperation() throws InvalidExpression {
+        Expression one = factory.createOperator("+",
+                new Object[]{factory.createReference("A1"), factory.createConstant(2)});
+        Expression two = factory.createOperator("+",
+                new Object[]{factory.createReference("A1"), factory.createConstant(2)});
+        assertSame("Equal operations were not shared.", one, two);
+        assertEquals("Distinct expressions were not counted.", 3, factory.size());
+        Reference.reachabilityFence(one);
+    }
+
+    @Test
+    public void testSharedSubExpressions() throws ParseException {
+        Parser parser = new ComplexParser(factory);
+        Operation first = (Operation) parser.parse("A1 * (A1 + A2)");
+        Operation second = (Operation) parser.parse("B1 - (A1 + A2)");
+        assertSame("Equal sub-expressions of different formulas were not shared.",
+                first.getExpressions().get(1), second.getExpressions().get(1));
+        assertSame("Equal references within a formula were not shared.",
+                first.getExpressions().get(0),
+                ((Operation) ((Operation) first.getExpressions().get(1))
+                        .getExpressions().get(0)).getExpressions().get(0));
+    }
+
+    @Test
+    public void testInvalidOperator() {
+        Expression one = factory.createConstant(1);
+        assertThrows(InvalidExpression.class,
+                () -> factory.createOperator("^", new Object[]{one}));
+        assertEquals("An invalid expression was remembered.", 1, factory.size());
+        Reference.reachabilityFence(one);
+    }
+
+    @Test
+    public void testConcurrentCreation() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Expression>> results = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                int value = i % 10;
+                results.add(executor.submit(() -> factory.createOperator("*",
+                        new Object[]{factory.createReference("A" + value), factory.createConstant(3)})));
+            }
+            for (Future<Expression> result : results) {
+                assertSame("Concurrently created operations were not shared.",
+                        factory.createOperator("*", ((Operation) result.get()).getExpressions().toArray()),
+                        result.get());
+            }
+            assertEquals("Each distinct expression was not remembered once.", 21, factory.size());
+            Reference.reachabilityFence(results);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testForgetsUnusedExpressions() throws Exception {
+        Expression kept = factory.createOperator("+",
+                new Object[]{factory.createReference("A1"), factory.createConstant(-1)});
+        for (int i = 0; i < 10000; i++) {
+            factory.createOperator("*", new Object[]{factory.createConstant(i)});
+        }
+        for (int attempt = 0; attempt < 100 && factory.size() > 3; attempt++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals("Expressions no longer used were still remembered.", 3, factory.size());
+        assertSame("An expression still in use was not shared.", kept, factory.createOperator("+",
+                new Object[]{factory.createReference("A1"), factory.createConstant(-1)}));
+    }
+}
@@ -1,11 +1,14 @@
 package sheep.expression.arithmetic;
 
 import org.junit.Test;
+import sheep.expression.EvaluationContext;
 import sheep.expression.Expression;
 import sheep.expression.TypeError;
 import sheep.expression.basic.Constant;
+import sheep.expression.basic.Reference;
 
 import java.util.HashMap;
+import java.util.Map;
 
 import static org.junit.Assert.*;
 
@@ -62,4 +65,21 @@ public class DivideTest {
         long result = arith.perform(new long[]{20, 2, 2, 2});
         assertEquals("Result of performing divide is incorrect.", 2, result);
     }
+
+    @Test
+    public void testNumber() throws TypeError {
+        Arithmetic arith = new Divide(new Expression[]{new Constant(20), new Reference("A1")});
+        assertEquals("Numeric result of divide is incorrect.",
+                4, arith.number(EvaluationContext.of(Map.of("A1", new Constant(5)))));
+    }
+
+    @Test
+    public void testNumberTypeErrorBeforeZero() {
+        Arithmetic arith = new Divide(
+                new Expression[]{new Constant(20), new Constant(0), new Reference("A1")}
+        );
+        assertThrows(TypeError.class, () -> arith.number(EvaluationContext.of(new HashMap<>())));
+        assertThrows(ArithmeticException.class,
+                () -> arith.number(EvaluationContext.of(Map.of("A1", new Constant(1)))));
+    }
 }
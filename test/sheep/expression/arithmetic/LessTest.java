@@ -1,13 +1,16 @@
 package sheep.expression.arithmetic;
 
 import org.junit.Test;
+import sheep.expression.EvaluationContext;
 import sheep.expression.Expression;
 import sheep.expression.TypeError;
 import sheep.expression.basic.Constant;
+import sheep.expression.basic.Nothing;
 
 import java.util.HashMap;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 
 public class LessTest {
@@ -99,4 +102,11 @@ public class LessTest {
         long result = arith.perform(new long[]{2, 3, 4, 6});
         assertEquals("Result of performing less operator is incorrect.", 1, result);
     }
+
+    @Test
+    public void testNumberEvaluatesEveryArgument() {
+        Arithmetic arith = new Less(new Expression[]{new Constant(2), new Constant(1), new Nothing()});
+        assertThrows("Comparison stopped before a type error.", TypeError.class,
+                () -> arith.number(EvaluationContext.of(new HashMap<>())));
+    }
 }
@@ -1,6 +1,7 @@
 package sheep.expression.arithmetic;
 
 import org.junit.Test;
+import sheep.expression.EvaluationContext;
 import sheep.expression.Expression;
 import sheep.expression.TypeError;
 import sheep.expression.basic.Constant;
@@ -100,4 +101,16 @@ public class MedianTest {
         var result = func.perform(new long[]{20, 15, 25, 10, 10});
         assertEquals("Result of performing median with multiple Constants is incorrect",15, result);
     }
+
+    @Test
+    public void testNumberUnsorted() throws TypeError {
+        Function function = new Median(
+                new Expression[]{new Constant(9), new Constant(1), new Constant(5), new Constant(3)}
+        );
+        assertEquals("Numeric result of median is incorrect.",
+                4, function.number(EvaluationContext.of(new HashMap<>())));
+        long[] values = {9, 1, 5};
+        assertEquals("Result of performing median is incorrect.", 5, function.perform(values));
+        assertEquals("Performing median reordered its arguments.", 9, values[0]);
+    }
 }
@@ -11,6 +11,8 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.function.LongBinaryOperator;
 
 import static org.junit.Assert.*;
 
@@ -62,6 +64,32 @@ public class OperationTest {
                 new HashSet<>(List.of("Hello", "Hi")), base.dependencies());
     }
 
+    @Test
+    public void testEquals() {
+        Operation one = Operation.plus(new Expression[]{new Reference("A1"), new Constant(2)});
+        Operation two = Operation.plus(new Expression[]{new Reference("A1"), new Constant(2)});
+        assertEquals("Operations with equal arguments are not equal.", one, two);
+        assertEquals("Equal operations have different hashcodes.", one.hashCode(), two.hashCode());
+        assertNotEquals("Different operations with equal arguments are equal.",
+                one, Operation.times(new Expression[]{new Reference("A1"), new Constant(2)}));
+        assertNotEquals("Operations with arguments in a different order are equal.",
+                one, Operation.plus(new Expression[]{new Constant(2), new Reference("A1")}));
+        assertEquals("Nested operations with equal arguments are not equal.",
+                Operation.minus(new Expression[]{one, new Constant(1)}),
+                Operation.minus(new Expression[]{two, new Constant(1)}));
+    }
+
+    @Test
+    public void testDependenciesCached() {
+        Expression hello = new Reference("Hello");
+        base = new ArithmeticExpression(new Expression[]{new ArithmeticExpression(new Expression[]{hello}), new Constant(2)});
+        assertSame("Dependencies of a lone dependant argument were not shared.",
+                hello.dependencies(), base.dependencies());
+        assertSame("Dependencies were computed more than once.",
+                base.dependencies(), base.dependencies());
+        assertThrows(UnsupportedOperationException.class, () -> base.dependencies().add("Hi"));
+    }
+
     @Test
     public void testDivide() {
         base = Arithmetic.divide(new Expression[]{new Constant(1), new Reference("A0")});
@@ -176,4 +204,39 @@ public class OperationTest {
     public void testValue() throws TypeError {
         base.value();
     }
+
+    @Test
+    public void testCombineMatchesApply() {
+        Random random = new Random(20);
+        for (String operator : new String[]{"+", "-", "*", "/", "", ","}) {
+            Operation operation = Operation.build(operator, new Expression[]{new Constant(1)});
+            LongBinaryOperator combiner = operation.combiner();
+            assertNotNull("Operation " + operator + " does not fold.", combiner);
+            for (int trial = 0; trial < 1000; trial++) {
+                long[] values = new long[1 + random.nextInt(4)];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = random.nextInt(5) == 0 ? random.nextLong() : random.nextInt(21) - 10;
+                }
+                Long combined;
+                try {
+                    long result = values[0];
+                    for (int i = 1; i < values.length; i++) {
+                        result = combiner.applyAsLong(result, values[i]);
+                    }
+                    combined = result;
+                } catch (ArithmeticException e) {
+                    combined = null;
+                }
+                Long applied;
+                try {
+                    applied = operation.apply(values);
+                } catch (ArithmeticException e) {
+                    applied = null;
+                }
+                assertEquals("Combining values did not perform " + operator + ".", applied, combined);
+            }
+        }
+        assertNull("A median was folded.",
+                Operation.median(new Expression[]{new Constant(1)}).combiner());
+    }
 }
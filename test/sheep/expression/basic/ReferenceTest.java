@@ -34,6 +34,13 @@ public class ReferenceTest {
                 new HashSet<>(Collections.singleton("A0")), same.dependencies());
     }
 
+    @Test
+    public void testDependenciesUnmodifiable() {
+        assertThrows(UnsupportedOperationException.class, () -> base.dependencies().add("A1"));
+        assertEquals("Reference dependencies were modified.",
+                Collections.singleton("A0"), base.dependencies());
+    }
+
     @Test
     public void testEquals() {
         assertNotEquals("References with different identifiers are evaluated as equal to each other.",
@@ -111,4 +118,26 @@ public class ReferenceTest {
         assertEquals(nothing, same.value(state));
         assertEquals(nothing, same.value(state));
     }
+
+    @Test
+    public void testValueLongChain() throws TypeError {
+        Map<String, Expression> state = new HashMap<>();
+        state.put("x0", new Constant(7));
+        for (int i = 1; i < 100000; i++) {
+            state.put("x" + i, new Reference("x" + (i - 1)));
+        }
+        Reference last = new Reference("x99999");
+        assertEquals("Long chain of references was not resolved.", new Constant(7), last.value(state));
+        state.remove("x0");
+        assertEquals("Chain ending at an unbound identifier did not resolve to it.",
+                new Reference("x0"), last.value(state));
+    }
+
+    @Test(expected = TypeError.class)
+    public void testValueLoop() throws TypeError {
+        Map<String, Expression> state = new HashMap<>();
+        state.put("A0", other);
+        state.put("A1", base);
+        base.value(state);
+    }
 }
@@ -0,0 +1,82 @@
+package sheep.parsing;
+
+import org.junit.Before;
+import org.junit.Test;
+import sheep.expression.Expression;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class CachingParserTest {
+    private CachingParser parser;
+
+    @Before
+    public void setUp() {
+        parser = new CachingParser(new SimpleParser(new EchoFactory()), 2);
+    }
+
+    @Test
+    public void testSharedExpression() throws ParseException {
+        Expression first = parser.parse("A1 + 2");
+        Expression second = parser.parse("A1 + 2");
+        assertSame("Parsing the same input twice did not return the same expression.",
+                first, second);
+        assertEquals("(Operator: + [(Reference: A1), (Constant: 2)])", second.toString());
+    }
+
+    @Test
+    public void testCounters() throws ParseException {
+        parser.parse("1");
+        parser.parse("2");
+        parser.parse("1");
+        parser.parse("1");
+        assertEquals("Cache hits were not counted.", 2, parser.hits());
+        assertEquals("Cache misses were not counted.", 2, parser.misses());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() throws ParseException {
+        Expression one = parser.parse("1");
+        parser.parse("2");
+        parser.parse("1");
+        parser.parse("3");
+        assertEquals("Cache grew beyond its capacity.", 2, parser.size());
+        assertSame("Recently used input was evicted.", one, parser.parse("1"));
+        long misses = parser.misses();
+        parser.parse("2");
+        assertEquals("Least recently used input was not evicted.", misses + 1, parser.misses());
+    }
+
+    @Test
+    public void testFailureNotRemembered() {
+        assertThrows(ParseException.class, () -> parser.parse("O_O"));
+        assertThrows(ParseException.class, () -> parser.parse("O_O"));
+        assertEquals("Input that failed to parse was remembered.", 0, parser.size());
+        assertEquals("Failed parses were not counted as misses.", 2, parser.misses());
+    }
+
+    @Test
+    public void testConcurrentParses() throws Exception {
+        CachingParser shared = new CachingParser(new SimpleParser(new EchoFactory()), 64);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Expression>> results = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                String input = "A" + (i % 10) + " * 3";
+                results.add(executor.submit(() -> shared.parse(input)));
+            }
+            for (Future<Expression> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals("Every parse was not counted.", 1000, shared.hits() + shared.misses());
+        assertEquals("Cache did not remember each distinct input once.", 10, shared.size());
+    }
+}
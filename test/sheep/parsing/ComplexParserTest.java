@@ -0,0 +1,167 @@
+package sheep.parsing;
+
+import org.junit.Before;
+import org.junit.Test;
+import sheep.expression.CoreFactory;
+import sheep.expression.Expression;
+import sheep.expression.ExpressionFactory;
+import sheep.expression.InvalidExpression;
+import sheep.expression.arithmetic.Operation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class ComplexParserTest {
+    private Parser parser;
+
+    /**
+     * Echo factory that records every call made to it.
+     */
+    private static class RecordingFactory extends EchoFactory {
+        private final List<String> calls = new ArrayList<>();
+
+        @Override
+        public Expression createReference(String identifier) {
+            calls.add("reference " + identifier);
+            return super.createReference(identifier);
+        }
+
+        @Override
+        public Expression createConstant(long value) {
+            calls.add("constant " + value);
+            return super.createConstant(value);
+        }
+
+        @Override
+        public Expression createEmpty() {
+            calls.add("empty");
+            return super.createEmpty();
+        }
+
+        @Override
+        public Expression createOperator(String name, Object[] args) throws InvalidExpression {
+            calls.add("operator " + name + " " + args.length);
+            return super.createOperator(name, args);
+        }
+    }
+
+    /*
+     * The parser as it was before parsing in a single pass,
+     * splitting the tokens on their first operator and parsing each half again.
+     */
+    private static Expression split(ExpressionFactory factory, CharSequence input,
+                                    List<ComplexScanner.Span> tokens)
+            throws ParseException, InvalidExpression {
+        if (tokens.isEmpty()) {
+            return factory.createEmpty();
+        }
+        if (tokens.size() == 1) {
+            ComplexScanner.Span token = tokens.getFirst();
+            return switch (token.type()) {
+                case OP -> factory.createOperator(token.name(input),
+                        new Expression[]{factory.createEmpty()});
+                case REFERENCE -> factory.createReference(token.name(input));
+                case CONST -> factory.createConstant(token.value(input));
+                case FUNC -> token.hasContents(input)
+                        ? factory.createOperator(token.name(input),
+                                new Expression[]{contents(factory, input, token)})
+                        : factory.createOperator("", new Expression[]{factory.createEmpty()});
+            };
+        }
+        for (int i = 0; i < tokens.size(); i++) {
+            ComplexScanner.Span token = tokens.get(i);
+            if (token.type() == ComplexScanner.TokenType.OP) {
+                Expression first = split(factory, input, tokens.subList(0, i));
+                Expression second = split(factory, input, tokens.subList(i + 1, tokens.size()));
+                return factory.createOperator(token.name(input), new Expression[]{first, second});
+            }
+            if (token.type() == ComplexScanner.TokenType.FUNC) {
+                return factory.createOperator(token.name(input),
+                        new Expression[]{contents(factory, input, token)});
+            }
+        }
+        throw new ParseException("Could not parse tokens");
+    }
+
+    private static Expression contents(ExpressionFactory factory, CharSequence input,
+                                       ComplexScanner.Span token)
+            throws ParseException, InvalidExpression {
+        return split(factory, input, ComplexScanner.scan(input, token.open() + 1, token.end()));
+    }
+
+    /**
+     * The result of parsing, or the parse exception message,
+     * followed by the calls made to the factory.
+     */
+    private static String outcome(String input, boolean recursive) {
+        RecordingFactory factory = new RecordingFactory();
+        String result;
+        try {
+            result = recursive
+                    ? split(factory, input, ComplexScanner.scan(input, 0, input.length())).toString()
+                    : new ComplexParser(factory).parse(input).toString();
+        } catch (ParseException | InvalidExpression e) {
+            result = "ParseException: " + e.getMessage();
+        }
+        return result + " " + factory.calls;
+    }
+
+    private static void assertMatchesRecursive(String input) {
+        assertEquals("Parsing \"" + input + "\" did not match the recursive parser.",
+                outcome(input, true), outcome(input, false));
+    }
+
+    @Before
+    public void setUp() {
+        parser = new ComplexParser(new EchoFactory());
+    }
+
+    @Test
+    public void testOperatorsNestRight() throws ParseException {
+        assertEquals("Operators were not nested to the right.",
+                "(Operator: + [(Reference: A0), (Operator: * [(Constant: 1), (Constant: 2)])])",
+                parser.parse("A0 + 1 * 2").toString());
+    }
+
+    @Test
+    public void testMatchesRecursiveEdgeCases() {
+        String[] inputs = {
+            "", " ", "42", "-42", "A0", "4+", "+4", "++", "1 2", "1 + 2 3",
+            "(1)", "()", "( )", "MEAN(1, 2, 3)", "(A0 + 1) * 2", "2 * (A0 + 1)",
+            "A0 (B0) + 1", "SUM()", "f(g(h(1)), 2) + 3", "1, 2, 3", "(1", "1)",
+        };
+        for (String input : inputs) {
+            assertMatchesRecursive(input);
+        }
+    }
+
+    @Test
+    public void testMatchesRecursiveRandom() {
+        Random random = new Random(11);
+        String alphabet = "  +-*/=<,()aF19";
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder input = new StringBuilder();
+            int length = random.nextInt(14);
+            for (int j = 0; j < length; j++) {
+                input.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            assertMatchesRecursive(input.toString());
+        }
+    }
+
+    @Test
+    public void testLongFormula() throws ParseException {
+        StringBuilder input = new StringBuilder("0");
+        for (int i = 1; i < 100000; i++) {
+            input.append(i % 3 == 0 ? " * " : " + ").append("A").append(i % 100);
+        }
+        Expression expression = new ComplexParser(new CoreFactory()).parse(input.toString());
+        assertEquals("Long formula was not parsed with every reference.",
+                100, expression.dependencies().size());
+        assertEquals("Long formula was not nested to the right.",
+                "0", ((Operation) expression).getExpressions().getFirst().render());
+    }
+}
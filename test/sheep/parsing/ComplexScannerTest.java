@@ -135,4 +135,51 @@ public class ComplexScannerTest {
         assertEquals("The parser does not give FUNC the correct contents",
                 "CONTENTS", tokens.getFirst().contents());
     }
+
+    @Test
+    public void testIsLong() {
+        String[] valid = {"0", "-0", "+7", "00042", "9223372036854775807", "-9223372036854775808"};
+        for (String input : valid) {
+            assertTrue(input + " was not recognised as a long",
+                    ComplexScanner.isLong(input, 0, input.length()));
+        }
+        String[] invalid = {"", "-", "+", "4 2", "42.0", "A1", "9223372036854775808",
+            "-9223372036854775809", "--1"};
+        for (String input : invalid) {
+            assertFalse(input + " was recognised as a long",
+                    ComplexScanner.isLong(input, 0, input.length()));
+        }
+    }
+
+    @Test
+    public void testOverflowIsReference() throws ParseException {
+        var tokens = ComplexScanner.tokenize("99999999999999999999");
+        assertEquals("The parser does not parse an overflowing number to a REFERENCE",
+                ComplexScanner.TokenType.REFERENCE, tokens.getFirst().type());
+    }
+
+    @Test
+    public void testWhitespaceRemoved() throws ParseException {
+        var tokens = ComplexScanner.tokenize(" 1 2 + NA ME( A , B )");
+        assertEquals("The parser does not remove whitespace within a CONST",
+                "12", tokens.get(0).name());
+        assertEquals("The parser does not parse a CONST containing whitespace",
+                ComplexScanner.TokenType.CONST, tokens.get(0).type());
+        assertEquals("The parser does not remove whitespace within a FUNC name",
+                "NAME", tokens.get(2).name());
+        assertEquals("The parser does not remove whitespace within FUNC contents",
+                "A,B", tokens.get(2).contents());
+    }
+
+    @Test
+    public void testScanOffsets() throws ParseException {
+        String input = "SUM(A1 , 2) + B7";
+        var spans = ComplexScanner.scan(input, 4, 10);
+        assertEquals("The scanner did not find the tokens within the range", 3, spans.size());
+        assertEquals("The scanner did not locate the first token", "A1",
+                input.substring(spans.get(0).start(), spans.get(0).end()));
+        assertEquals("The scanner did not locate the last token", 9, spans.get(2).start());
+        assertEquals("The scanner did not parse the constant in place", 2,
+                spans.get(2).value(input));
+    }
 }
@@ -3,12 +3,104 @@ package sheep.parsing;
 import org.junit.Before;
 import org.junit.Test;
 import sheep.expression.Expression;
+import sheep.expression.ExpressionFactory;
+import sheep.expression.InvalidExpression;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
 
 import static org.junit.Assert.assertEquals;
 
 public class SimpleParserTest {
     private Parser parser;
 
+    /**
+     * Echo factory that records every call made to it.
+     */
+    private static class RecordingFactory extends EchoFactory {
+        private final List<String> calls = new ArrayList<>();
+
+        @Override
+        public Expression createReference(String identifier) {
+            calls.add("reference " + identifier);
+            return super.createReference(identifier);
+        }
+
+        @Override
+        public Expression createConstant(long value) {
+            calls.add("constant " + value);
+            return super.createConstant(value);
+        }
+
+        @Override
+        public Expression createEmpty() {
+            calls.add("empty");
+            return super.createEmpty();
+        }
+
+        @Override
+        public Expression createOperator(String name, Object[] args) throws InvalidExpression {
+            calls.add("operator " + name + " " + args.length);
+            return super.createOperator(name, args);
+        }
+    }
+
+    /*
+     * The parser as it was before parsing in a single pass,
+     * splitting the input on each operator in turn and parsing the pieces again.
+     */
+    private static Expression split(ExpressionFactory factory, String input)
+            throws ParseException, InvalidExpression {
+        input = input.strip();
+        if (ComplexScanner.isLong(input, 0, input.length())) {
+            return factory.createConstant(Long.parseLong(input));
+        }
+        String[] operators = {"=", "<", "+", "-", "*", "/"};
+        for (String operator : operators) {
+            if (input.contains(operator)) {
+                String[] pieces = input.split(Pattern.quote(operator));
+                Expression[] operands = new Expression[pieces.length];
+                for (int i = 0; i < pieces.length; i++) {
+                    operands[i] = split(factory, pieces[i]);
+                }
+                return factory.createOperator(operator, operands);
+            }
+        }
+        for (char character : input.toCharArray()) {
+            if (!(Character.isAlphabetic(character) || Character.isDigit(character))) {
+                throw new ParseException("Unknown input: " + input);
+            }
+        }
+        if (input.isEmpty()) {
+            return factory.createEmpty();
+        }
+        return factory.createReference(input);
+    }
+
+    /**
+     * The result of parsing, or the parse exception message,
+     * followed by the calls made to the factory.
+     */
+    private static String outcome(String input, boolean split) {
+        RecordingFactory factory = new RecordingFactory();
+        String result;
+        try {
+            result = split
+                    ? split(factory, input).toString()
+                    : new SimpleParser(factory).parse(input).toString();
+        } catch (ParseException | InvalidExpression e) {
+            result = "ParseException: " + e.getMessage();
+        }
+        return result + " " + factory.calls;
+    }
+
+    private static void assertMatchesSplit(String input) {
+        assertEquals("Parsing \"" + input + "\" did not match the splitting parser.",
+                outcome(input, true), outcome(input, false));
+    }
+
     @Before
     public void setUp() {
         parser = new SimpleParser(new EchoFactory());
@@ -159,4 +251,52 @@ public class SimpleParserTest {
     public void testInvalidChars1() throws ParseException {
         Expression expression = parser.parse("_ =_");
     }
+
+    @Test
+    public void testPrecedence() throws ParseException {
+        Expression expression = parser.parse("a < b = 1 - 2 / c");
+        assertEquals("Operators were not parsed in order of precedence.",
+                "(Operator: = [(Operator: < [(Reference: a), (Reference: b)]), "
+                        + "(Operator: - [(Constant: 1), (Operator: / [(Constant: 2), (Reference: c)])])])",
+                expression.toString());
+    }
+
+    @Test
+    public void testMatchesSplitEdgeCases() {
+        String[] inputs = {
+            "", " ", "\t ", "42", "  -42\t", "+42", "00000", "42.0", "A0", "  OO ",
+            "1+-5", "1*-5", "-5+1", "-5*2", "- 5", "1 - -5", "3*-5", "1<-5",
+            "4+", "4+ ", "4++", "4+ +", "4++5", "+4", " + 4", "+", "++", " + + ", "=",
+            "4* +2", "4+ *2", "4* *", "*", "1 2", "_ =_", "a$ + b = c", "A0 / 3 / 4 / 2",
+            "99999999999999999999", "99999999999999999999 + 1", "3* 2 * 20 - 2/15 +12* 100",
+        };
+        for (String input : inputs) {
+            assertMatchesSplit(input);
+        }
+    }
+
+    @Test
+    public void testMatchesSplitRandom() {
+        Random random = new Random(11);
+        String alphabet = "  +-*/=<a19_";
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder input = new StringBuilder();
+            int length = random.nextInt(12);
+            for (int j = 0; j < length; j++) {
+                input.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            assertMatchesSplit(input.toString());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testLongFormula() throws ParseException {
+        StringBuilder input = new StringBuilder("0");
+        for (int i = 1; i < 50000; i++) {
+            input.append(i % 3 == 0 ? " * " : " + ").append("A").append(i % 100);
+        }
+        Expression expression = parser.parse(input.toString());
+        assertEquals("Long formula was not parsed as a single flattened sum.",
+                true, expression.toString().startsWith("(Operator: + [(Constant: 0), "));
+    }
 }
@@ -1,14 +1,24 @@
 package sheep.sheets;
 
+import sheep.core.UpdateResponse;
+import sheep.expression.CoreFactory;
 import sheep.expression.Expression;
 import sheep.expression.TypeError;
 import sheep.expression.basic.Constant;
+import sheep.expression.basic.Nothing;
+import sheep.parsing.ComplexParser;
 import sheep.parsing.ParseException;
 import sheep.parsing.Parser;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -122,4 +132,541 @@ public class SheetBuilderTest {
             }
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSparseDimensions() {
+        Sheet sparse = builder.sparse(1000000, 26);
+        assertEquals("SheetBuilder created sparse sheet with incorrect number of rows.",
+                1000000, sparse.getRows());
+        assertEquals("SheetBuilder created sparse sheet with incorrect number of columns.",
+                26, sparse.getColumns());
+    }
+
+    @Test
+    public void testSparseInitialValues() {
+        Sheet sparse = builder.sparse(NUM_ROWS, NUM_COLUMNS);
+        for (int row = 0; row < sparse.getRows(); row++) {
+            for (int column = 0; column < sparse.getColumns(); column++) {
+                assertEquals("Sparse sheet did not contain the dummy expression in all cells.",
+                        new DummyExpression(), sparse.formulaAt(new CellLocation(row, column)));
+                assertEquals("Sparse sheet had an incorrect initial value.",
+                        new DummyExpression(), sparse.valueAt(new CellLocation(row, column)));
+            }
+        }
+    }
+
+    @Test
+    public void testSparseMatchesDense() throws TypeError {
+        builder = builder.includeBuiltIn("dood", new FormulaExpr("3490524077"));
+        Sheet dense = builder.empty(NUM_ROWS, NUM_COLUMNS);
+        Sheet sparse = builder.sparse(NUM_ROWS, NUM_COLUMNS);
+        for (Sheet target : List.of(dense, sparse)) {
+            target.update(new CellLocation(1, 1), new RefExpr("dood"));
+            target.update(new CellLocation(3, 4), new RefExpr("B1"));
+            target.update(new CellLocation(3, 4), new DummyExpression());
+        }
+        assertEquals("Sparse sheet encoded differently to a dense sheet.",
+                dense.encode(), sparse.encode());
+        assertEquals("Value(3490524077)", sparse.valueAt(1, 1).getContent());
+        assertEquals("Sparse sheet did not track usages.",
+                dense.usedBy(new CellLocation(1, 1)), sparse.usedBy(new CellLocation(1, 1)));
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        Path file = Files.createTempFile("sheet", ".sheep");
+        try {
+            Files.writeString(file, "->A1|Top\nBottom");
+            Sheet loaded = new SheetBuilder(new EchoParser(), new FormulaExpr("Default"))
+                    .load(file.toString());
+            assertEquals("Loaded sheet has incorrect number of rows.", 2, loaded.getRows());
+            assertEquals("Loaded sheet has incorrect number of columns.", 2, loaded.getColumns());
+            assertEquals("Formula(Top)", loaded.formulaAt(0, 1).getContent());
+            assertEquals("Missing trailing cell was not filled with the default.",
+                    "Formula(Default)", loaded.formulaAt(1, 1).getContent());
+            assertEquals("Reference to a later row was not resolved.",
+                    "Value(Bottom)", loaded.valueAt(0, 0).getContent());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testLoadInParallelMatchesSequential() throws Exception {
+        StringJoiner contents = new StringJoiner("\n");
+        for (int row = 0; row < 1200; row++) {
+            contents.add("Cell" + row + "|->A" + (row + 1) + "|" + (row % 3 == 0 ? "" : "x"));
+        }
+        Path file = Files.createTempFile("sheet", ".sheep");
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Files.writeString(file, contents.toString());
+            SheetBuilder sequential = new SheetBuilder(new EchoParser(), new FormulaExpr("Default"));
+            SheetBuilder parallel = new SheetBuilder(new EchoParser(), new FormulaExpr("Default"))
+                    .parseWith(pool);
+            Sheet expected = sequential.load(file.toString());
+            Sheet actual = parallel.load(file.toString());
+            assertEquals("Parallel load produced a different sheet.",
+                    expected.encode(), actual.encode());
+            for (int row = 0; row < expected.getRows(); row++) {
+                assertEquals(expected.valueAt(row, 1).getContent(), actual.valueAt(row, 1).getContent());
+            }
+        } finally {
+            pool.shutdown();
+            Files.delete(file);
+        }
+    }
+
+    /*
+     * A parser of core expressions that counts how many inputs it has parsed.
+     */
+    private static class CountingParser implements Parser {
+        private final Parser parser = new ComplexParser(new CoreFactory());
+        private int parsed = 0;
+
+        @Override
+        public Expression parse(String input) throws ParseException {
+            parsed++;
+            return parser.parse(input);
+        }
+    }
+
+    private static final String CHAIN = "1|A0+A0|B0*3\nA0+1|A1 + B0|C0-C1\n7|ZZ|";
+
+    @Test
+    public void testLazyLoadMatchesEager() throws Exception {
+        Path file = Files.createTempFile("sheet", ".sheep");
+        try {
+            Files.writeString(file, CHAIN);
+            Sheet eager = new SheetBuilder(new ComplexParser(new CoreFactory()), new Nothing())
+                    .load(file.toString());
+            Sheet lazy = new SheetBuilder(new ComplexParser(new CoreFactory()), new Nothing())
+                    .parseLazily(true)
+                    .load(file.toString());
+            assertEquals("Lazy sheet has incorrect number of rows.", eager.getRows(), lazy.getRows());
+            assertEquals("Lazy sheet has incorrect number of columns.",
+                    eager.getColumns(), lazy.getColumns());
+            for (int row = 0; row < eager.getRows(); row++) {
+                for (int column = 0; column < eager.getColumns(); column++) {
+                    assertEquals("Lazy sheet has an incorrect formula.",
+                            eager.formulaAt(row, column).getContent(),
+                            lazy.formulaAt(row, column).getContent());
+                    assertEquals("Lazy sheet has an incorrect value.",
+                            eager.valueAt(row, column).getContent(),
+                            lazy.valueAt(row, column).getContent());
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testLazyLoadParsesOnDemand() throws Exception {
+        Path file = Files.createTempFile("sheet", ".sheep");
+        try {
+            Files.writeString(file, CHAIN);
+            CountingParser parser = new CountingParser();
+            Sheet lazy = new SheetBuilder(parser, new Nothing())
+                    .parseLazily(true)
+                    .load(file.toString());
+            assertEquals("Cells were parsed when loaded.", 0, parser.parsed);
+            assertEquals("2", lazy.valueAt(1, 0).getContent());
+            assertEquals("Cells other than the viewed cell and its dependencies were parsed.",
+                    2, parser.parsed);
+            assertEquals("Lazy sheet was not saved with its original text.", CHAIN, lazy.encode());
+            assertEquals("Saving parsed cells.", 2, parser.parsed);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testLazyLoadUpdate() throws Exception {
+        Path file = Files.createTempFile("sheet", ".sheep");
+        try {
+            Files.writeString(file, CHAIN);
+            Sheet lazy = new SheetBuilder(new ComplexParser(new CoreFactory()), new Nothing())
+                    .parseLazily(true)
+                    .load(file.toString());
+            lazy.update(0, 0, "2");
+            assertEquals("Dependant of an updated cell was not recalculated.",
+                    "7", lazy.valueAt(1, 1).getContent());
+            assertEquals("Updated cell was not rendered, or untouched cells were not kept.",
+                    "2|A0+A0|B0*3\nA0+1|A1 + B0|C0-C1\n7|ZZ|", lazy.encode());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testLazyLoadRejectedUpdateKeepsText() throws Exception {
+        Path file = Files.createTempFile("sheet", ".sheep");
+        try {
+            Files.writeString(file, CHAIN);
+            Sheet lazy = new SheetBuilder(new ComplexParser(new CoreFactory()), new Nothing())
+                    .parseLazily(true)
+                    .load(file.toString());
+            assertFalse("Update with a type error was accepted.",
+                    lazy.update(0, 1, "ZZ + 1").isSuccess());
+            assertFalse("Update closing a reference loop was accepted.",
+                    lazy.update(0, 0, "B0").isSuccess());
+            assertEquals("Rejected updates changed the saved text of the cells.", CHAIN, lazy.encode());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testLazyLoadDivisionByZero() throws Exception {
+        Path file = Files.createTempFile("sheet", ".sheep");
+        try {
+            // the divisions nest to the right, so B0 is A0 / (1 / 2), a division by zero
+            Files.writeString(file, "5|A0 / 1 / 2|B0 + 1\n|A0 / 5|");
+            Sheet lazy = new SheetBuilder(new ComplexParser(new CoreFactory()), new Nothing())
+                    .parseLazily(true)
+                    .load(file.toString());
+            assertEquals("Cell dividing by zero did not keep the default value.",
+                    "", lazy.valueAt(0, 1).getContent());
+            assertEquals("Dependant of a cell dividing by zero did not keep the default value.",
+                    "", lazy.valueAt(0, 2).getContent());
+            assertEquals("Cell beside a failed division was not evaluated.",
+                    "1", lazy.valueAt(1, 1).getContent());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testLazyLoadLongChain() throws Exception {
+        StringJoiner contents = new StringJoiner("\n");
+        contents.add("1");
+        for (int row = 1; row < 20000; row++) {
+            contents.add("A" + (row - 1) + "+1");
+        }
+        Path file = Files.createTempFile("sheet", ".sheep");
+        try {
+            Files.writeString(file, contents.toString());
+            Sheet lazy = new SheetBuilder(new ComplexParser(new CoreFactory()), new Nothing())
+                    .parseLazily(true)
+                    .load(file.toString());
+            assertEquals("Long chain of references was not evaluated.",
+                    "20000", lazy.valueAt(19999, 0).getContent());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testUsedByLongChain() {
+        Sheet chain = new SheetBuilder(new ComplexParser(new CoreFactory()), new Nothing())
+                .empty(100000, 1);
+        chain.update(0, 0, "1");
+        for (int row = 1; row < 100000; row++) {
+            chain.update(row, 0, "A" + (row - 1) + " + 1");
+        }
+        assertEquals("Usages of a long chain were not all found.",
+                99999, chain.usedBy(new CellLocation(0, 0)).size());
+        assertTrue("Update of a long chain was rejected.", chain.update(0, 0, "2").isSuccess());
+        assertEquals("Long chain was not recalculated.", "100001", chain.valueAt(99999, 0).getContent());
+    }
+
+    /*
+     * A wide sheet: every cell of the first column uses A0, and each cell of
+     * the second column uses the cell beside it, giving two levels of 999 cells.
+     */
+    private static void fillWide(Sheet wide) {
+        wide.update(0, 0, "1");
+        wide.update(0, 1, "1");
+        for (int row = 1; row < 1000; row++) {
+            wide.update(row, 0, "A0 * " + row);
+            wide.update(row, 1, "A" + row + " + B0 - 1");
+        }
+    }
+
+    @Test
+    public void testParallelRecalculationMatchesSequential() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            SheetBuilder coreBuilder = new SheetBuilder(new ComplexParser(new CoreFactory()), new Nothing());
+            Sheet expected = coreBuilder.empty(1000, 2);
+            Sheet actual = coreBuilder.recalculateWith(pool).empty(1000, 2);
+            fillWide(expected);
+            fillWide(actual);
+            expected.update(0, 0, "3");
+            actual.update(0, 0, "3");
+            assertTrue("Parallel update was rejected.", actual.update(0, 1, "5").isSuccess());
+            expected.update(0, 1, "5");
+            for (int row = 0; row < 1000; row++) {
+                for (int column = 0; column < 2; column++) {
+                    assertEquals("Parallel recalculation produced a different value.",
+                            expected.valueAt(row, column).getContent(),
+                            actual.valueAt(row, column).getContent());
+                }
+            }
+            assertEquals("Parallel recalculation produced a wrong value.",
+                    "3001", actual.valueAt(999, 1).getContent());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelRecalculationRollback() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Sheet wide = new SheetBuilder(new ComplexParser(new CoreFactory()), new Nothing())
+                    .recalculateWith(pool)
+                    .empty(1000, 2);
+            fillWide(wide);
+            assertFalse("Type error in a parallel level was not reported.",
+                    wide.update(0, 0, "").isSuccess());
+            assertEquals("Failed update was not rolled back.", "1", wide.formulaAt(0, 0).getContent());
+            for (int row = 1; row < 1000; row++) {
+                assertEquals("Failed update changed a value.",
+                        String.valueOf(row), wide.valueAt(row, 1).getContent());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /*
+     * Every cell of the second column uses B0, which uses A0,
+     * so changing A0 reaches every cell through B0, but B0 never changes value.
+     */
+    @Test(timeout = 20000)
+    public void testEditsAboveLargeFanOut() {
+        for (boolean lazy : new boolean[]{false, true}) {
+            Sheet sheet = new SheetBuilder(new ComplexParser(new CoreFactory()), new Nothing())
+                    .recalculateLazily(lazy)
+                    .empty(100000, 2);
+            sheet.update(0, 0, "1");
+            sheet.update(0, 1, "A0 * 0");
+            for (int row = 1; row < 100000; row++) {
+                sheet.update(row, 1, "B0 + " + row);
+            }
+            for (int edit = 0; edit < 1000; edit++) {
+                assertTrue("Edit above a large fan-out was rejected.",
+                        sheet.update(0, 0, String.valueOf(edit)).isSuccess());
+                assertTrue("Edit above a large fan-out was rejected.",
+                        sheet.update(edit + 1, 0, "A0 + A" + edit).isSuccess());
+            }
+            assertEquals("Cell using the fan-out was not recalculated.",
+                    "99999", sheet.valueAt(99999, 1).getContent());
+            assertEquals("Edited cells were not recalculated.",
+                    String.valueOf(1001 * 999),
+                    sheet.valueAt(1000, 0).getContent());
+        }
+    }
+
+    @Test
+    public void testUpdatesAroundLoadedLoop() throws Exception {
+        Path file = Files.createTempFile("sheet", ".sheep");
+        try {
+            Files.writeString(file, CHAIN);
+            for (boolean lazy : new boolean[]{false, true}) {
+                Sheet sheet = new SheetBuilder(new ComplexParser(new CoreFactory()), new Nothing())
+                        .recalculateLazily(lazy)
+                        .load(file.toString());
+                assertTrue("Update using a loaded loop was rejected.",
+                        sheet.update(2, 2, "C1 + 1").isSuccess());
+                assertEquals("Cell using a loaded loop did not keep the default value.",
+                        "", sheet.valueAt(2, 2).getContent());
+                assertTrue("Update breaking a loaded loop was rejected.",
+                        sheet.update(1, 2, "C0 - 1").isSuccess());
+                assertEquals("Cell of a broken loop was not recalculated.",
+                        "5", sheet.valueAt(1, 2).getContent());
+                assertEquals("Cell using a broken loop was not recalculated.",
+                        "6", sheet.valueAt(2, 2).getContent());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testLazyRecalculationRejectsAsEager() {
+        Sheet eager = new SheetBuilder(new ComplexParser(new CoreFactory()), new Nothing())
+                .empty(3, 3);
+        Sheet lazy = new SheetBuilder(new ComplexParser(new CoreFactory()), new Nothing())
+                .recalculateLazily(true)
+                .empty(3, 3);
+        List<String> failures = new ArrayList<>();
+        for (Sheet sheet : List.of(eager, lazy)) {
+            sheet.update(0, 0, "1");
+            sheet.update(1, 0, "A0 + 1");
+            sheet.update(2, 0, "A1 * 2");
+            sheet.update(0, 1, "3");
+        }
+        String[][] edits = {{"0", "0", ""}, {"0", "1", "7"}, {"0", "2", "A1 + 1"}, {"0", "0", ""}};
+        for (String[] edit : edits) {
+            int row = Integer.parseInt(edit[0]);
+            int column = Integer.parseInt(edit[1]);
+            UpdateResponse response = eager.update(row, column, edit[2]);
+            if (!response.isSuccess()) {
+                failures.add(response.getMessage());
+            }
+            // the usages of the cell are not evaluated yet, so the update is accepted
+            assertTrue("Lazy update was rejected.", lazy.update(row, column, edit[2]).isSuccess());
+        }
+        assertEquals("Eager update with failing usage was accepted.", 2, failures.size());
+        // reaching the usage with a type error rejects the update, as eager did
+        assertEquals("Usage of a rejected update was not recalculated.",
+                "4", lazy.valueAt(2, 0).getContent());
+
+        for (int row = 0; row < 3; row++) {
+            for (int column = 0; column < 3; column++) {
+                assertEquals("Lazy value differs from eager.",
+                        eager.valueAt(row, column).getContent(), lazy.valueAt(row, column).getContent());
+                assertEquals("Lazy formula differs from eager.",
+                        eager.formulaAt(row, column).getContent(),
+                        lazy.formulaAt(row, column).getContent());
+            }
+        }
+        List<String> rejected = new ArrayList<>();
+        for (UpdateResponse response : lazy.rejectedUpdates()) {
+            assertFalse("Rejected update reported success.", response.isSuccess());
+            rejected.add(response.getMessage());
+        }
+        assertEquals("Lazy rejections differ from eager.", failures, rejected);
+        assertEquals("Rejections were reported twice.", List.of(), lazy.rejectedUpdates());
+    }
+
+    @Test
+    public void testLazyRecalculationSettlesBeforeRejecting() {
+        Sheet eager = new SheetBuilder(new ComplexParser(new CoreFactory()), new Nothing())
+                .empty(4, 3);
+        Sheet lazy = new SheetBuilder(new ComplexParser(new CoreFactory()), new Nothing())
+                .recalculateLazily(true)
+                .empty(4, 3);
+        String[][] edits = {
+            {"0", "2", "5"}, {"1", "1", "C0"}, {"3", "0", "C0 + 1"},
+            {"0", "2", ""}, {"2", "0", "B1 + 1"}, {"0", "0", "1"},
+        };
+        for (Sheet sheet : List.of(eager, lazy)) {
+            for (String[] edit : edits) {
+                sheet.update(Integer.parseInt(edit[0]), Integer.parseInt(edit[1]), edit[2]);
+            }
+        }
+        // A2 only failed against the value of C0 that eager rejected
+        assertEquals("Update failing only because of an unsettled update was rejected.",
+                "B1 + 1", lazy.formulaAt(2, 0).getContent());
+        for (int row = 0; row < 4; row++) {
+            for (int column = 0; column < 3; column++) {
+                assertEquals("Lazy value differs from eager.",
+                        eager.valueAt(row, column).getContent(), lazy.valueAt(row, column).getContent());
+                assertEquals("Lazy formula differs from eager.",
+                        eager.formulaAt(row, column).getContent(),
+                        lazy.formulaAt(row, column).getContent());
+            }
+        }
+        assertEquals("Rejected update was not reported.", 1, lazy.rejectedUpdates().size());
+    }
+
+    @Test
+    public void testLazyRecalculationRejectsDivisionByZero() {
+        Sheet lazy = new SheetBuilder(new ComplexParser(new CoreFactory()), new Nothing())
+                .recalculateLazily(true)
+                .empty(3, 3);
+        lazy.update(0, 0, "2");
+        lazy.update(1, 0, "10 / A0");
+        assertTrue("Lazy update was rejected.", lazy.update(0, 0, "0").isSuccess());
+        assertEquals("Usage dividing by zero did not reject the update.",
+                "5", lazy.valueAt(1, 0).getContent());
+        assertEquals("Update dividing a usage by zero was kept.", "2", lazy.formulaAt(0, 0).getContent());
+        assertEquals("Rejected update was not reported.",
+                List.of("Evaluation error: java.lang.ArithmeticException: / by zero"),
+                lazy.rejectedUpdates().stream().map(UpdateResponse::getMessage).toList());
+    }
+
+    @Test
+    public void testRecalculationAfterReordering() {
+        Sheet sheet = new SheetBuilder(new ComplexParser(new CoreFactory()), new Nothing())
+                .empty(5, 3);
+        sheet.update(0, 0, "1");
+        sheet.update(0, 1, "10");
+        for (int row = 1; row < 5; row++) {
+            sheet.update(row, 0, "A" + (row - 1) + " + 1");
+            sheet.update(row, 1, "B" + (row - 1) + " + 1");
+        }
+        sheet.update(0, 2, "A4 + B0");
+        // the first column now comes after the whole second column
+        assertTrue("Update was rejected.", sheet.update(0, 0, "B4 + 1").isSuccess());
+        assertEquals("Cells after a raised cell were not recalculated.",
+                "19", sheet.valueAt(4, 0).getContent());
+        assertTrue("Update was rejected.", sheet.update(0, 1, "20").isSuccess());
+        assertEquals("Raised cell was not recalculated.", "25", sheet.valueAt(0, 0).getContent());
+        assertEquals("Cells after a raised cell were not recalculated.",
+                "29", sheet.valueAt(4, 0).getContent());
+        assertEquals("Cell depending on cells of different heights was not recalculated.",
+                "49", sheet.valueAt(0, 2).getContent());
+    }
+
+    @Test
+    public void testLazyRecalculationMatchesEager() {
+        SheetBuilder coreBuilder = new SheetBuilder(new ComplexParser(new CoreFactory()), new Nothing());
+        Sheet expected = coreBuilder.empty(1000, 2);
+        Sheet actual = coreBuilder.recalculateLazily(true).empty(1000, 2);
+        fillWide(expected);
+        fillWide(actual);
+        expected.update(0, 0, "3");
+        actual.update(0, 0, "3");
+        assertEquals("Lazily recalculated cell has a wrong value.",
+                "2997", actual.valueAt(999, 1).getContent());
+        expected.update(0, 1, "5");
+        actual.update(0, 1, "5");
+        for (int row = 0; row < 1000; row++) {
+            for (int column = 0; column < 2; column++) {
+                assertEquals("Lazy recalculation produced a different value.",
+                        expected.valueAt(row, column).getContent(),
+                        actual.valueAt(row, column).getContent());
+            }
+        }
+    }
+
+    @Test
+    public void testLazyRecalculationDefersUsages() throws TypeError {
+        Sheet lazy = new SheetBuilder(new ComplexParser(new CoreFactory()), new Nothing())
+                .recalculateLazily(true)
+                .empty(2, 1);
+        CountingExpr usage = new CountingExpr("A0");
+        lazy.update(new CellLocation(0, 0), new Constant(1));
+        lazy.update(new CellLocation(1, 0), usage);
+        assertEquals("Updated cell was not evaluated.", 1, usage.getEvaluations());
+
+        lazy.update(new CellLocation(0, 0), new Constant(2));
+        lazy.update(new CellLocation(0, 0), new Constant(3));
+        assertEquals("Usage was evaluated before its value was needed.", 1, usage.getEvaluations());
+        lazy.valueAt(new CellLocation(1, 0));
+        lazy.valueAt(new CellLocation(1, 0));
+        assertEquals("Usage was not evaluated exactly once when viewed.", 2, usage.getEvaluations());
+    }
+
+    @Test
+    public void testLazyRecalculationTypeErrors() {
+        Sheet lazy = new SheetBuilder(new ComplexParser(new CoreFactory()), new Nothing())
+                .recalculateLazily(true)
+                .empty(3, 2);
+        lazy.update(0, 0, "1");
+        lazy.update(1, 0, "A0 + 1");
+        lazy.update(2, 0, "A1 + 1");
+        assertFalse("Type error in an updated cell was not reported.",
+                lazy.update(1, 0, "B0 * 2").isSuccess());
+        assertEquals("Failed update was not rolled back.", "A0 + 1", lazy.formulaAt(1, 0).getContent());
+        assertEquals("Failed update changed a usage.", "3", lazy.valueAt(2, 0).getContent());
+
+        assertTrue("Type error in a usage was found before it was viewed.",
+                lazy.update(0, 0, "").isSuccess());
+        assertEquals("Update with a type error in a usage was not rolled back.",
+                "2", lazy.valueAt(1, 0).getContent());
+        assertEquals("Rolled back update was kept.", "1", lazy.formulaAt(0, 0).getContent());
+        assertEquals("Dependant of a rolled back update was not recalculated.",
+                "3", lazy.valueAt(2, 0).getContent());
+        assertEquals("Rolled back update was not reported.",
+                1, lazy.rejectedUpdates().size());
+        lazy.update(0, 0, "5");
+        assertEquals("Broken cell did not recover once its dependency was fixed.",
+                "7", lazy.valueAt(2, 0).getContent());
+    }
+}
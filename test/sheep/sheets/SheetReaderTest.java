@@ -0,0 +1,80 @@
+package sheep.sheets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SheetReaderTest {
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("sheet", ".sheep");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private List<List<String>> read(String contents) throws IOException {
+        Files.writeString(file, contents);
+        List<List<String>> rows = new ArrayList<>();
+        try (SheetReader reader = new SheetReader(file.toString())) {
+            for (String[] row = reader.nextRow(); row != null; row = reader.nextRow()) {
+                rows.add(List.of(row));
+            }
+        }
+        return rows;
+    }
+
+    @Test
+    public void testMatchesSplit() throws IOException {
+        String[] lines = {"4|A2*4", "A1*A1|", "", "|", "||x", "a||b||"};
+        List<List<String>> expected = new ArrayList<>();
+        for (String line : lines) {
+            expected.add(List.of(line.split("\\|")));
+        }
+        assertEquals("Reader did not split rows the same as String.split.",
+                expected, read(String.join("\n", lines)));
+    }
+
+    @Test
+    public void testLineEndings() throws IOException {
+        assertEquals("Reader did not handle mixed line endings.",
+                List.of(List.of("a"), List.of("b"), List.of("c"), List.of("d")),
+                read("a\r\nb\rc\nd\n"));
+    }
+
+    @Test
+    public void testWidth() throws IOException {
+        Files.writeString(file, "a||\nb");
+        try (SheetReader reader = new SheetReader(file.toString())) {
+            reader.nextRow();
+            assertEquals("Width did not include trailing empty cells.", 3, reader.width());
+            reader.nextRow();
+            assertEquals(1, reader.width());
+            assertNull("Reader returned a row after the end of the file.", reader.nextRow());
+        }
+    }
+
+    @Test
+    public void testLongCell() throws IOException {
+        String cell = "7".repeat(200000);
+        assertEquals("Reader did not read a cell spanning several buffers.",
+                List.of(List.of(cell, "x")), read(cell + "|x"));
+    }
+
+    @Test
+    public void testUnicode() throws IOException {
+        assertEquals(List.of(List.of("héllo", "wörld")), read("héllo|wörld"));
+    }
+}
@@ -1,13 +1,19 @@
 package sheep.sheets;
 
+import sheep.core.CellEdit;
 import sheep.core.UpdateResponse;
 import sheep.core.ViewElement;
+import sheep.expression.CoreFactory;
 import sheep.expression.Expression;
 import sheep.expression.TypeError;
+import sheep.expression.basic.Nothing;
 import sheep.expression.basic.Reference;
+import sheep.parsing.ComplexParser;
 import sheep.parsing.ParseException;
 import sheep.parsing.Parser;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.util.*;
 
 import org.junit.Before;
@@ -160,6 +166,46 @@ class RefExpr extends Expression {
     }
 }
 
+class CountingExpr extends Expression {
+
+    private final Set<String> ids;
+    private int evaluations = 0;
+
+    public CountingExpr(String... ids) {
+        this.ids = Set.of(ids);
+    }
+
+    public int getEvaluations() {
+        return evaluations;
+    }
+
+    @Override
+    public Set<String> dependencies() {
+        return ids;
+    }
+
+    @Override
+    public long value() throws TypeError {
+        return 0;
+    }
+
+    @Override
+    public Expression value(Map<String, Expression> state) throws TypeError {
+        evaluations++;
+        for (String id : ids) {
+            if (state.containsKey(id)) {
+                state.get(id).value(state);
+            }
+        }
+        return new ValueExpr("Counted");
+    }
+
+    @Override
+    public String render() {
+        return "Count" + ids;
+    }
+}
+
 enum SpecialStrings {
     ThrowTypeError("Throw Type Error"),
     ThrowParseException("Throw Parse Exception");
@@ -546,4 +592,215 @@ public class SheetTest {
                 )),
                 base.usedBy(new CellLocation(4, 0)));
     }
+
+    /**
+     * Test that inserting a reference to a cell into that same cell is rejected,
+     * leaving the cell as it was.
+     */
+    @Test
+    public void testSelfReferenceRejected() {
+        ReferenceLoop loop = assertThrows(ReferenceLoop.class,
+                () -> base.update(new CellLocation(1, 0), new Reference("A1")));
+        assertEquals("Loop did not name the cell referring to itself.",
+                List.of(new CellLocation(1, 0)), loop.loop());
+        assertEquals("Rejected update was not rolled back.",
+                new FormulaExpr("Default"), base.formulaAt(new CellLocation(1, 0)));
+        assertEquals("Rejected update left a usage behind.",
+                Set.of(), base.usedBy(new CellLocation(1, 0)));
+    }
+
+    /**
+     * Test that closing a loop of references A0 -> A1 -> A2 -> A0 is rejected
+     * with the cells of the loop, in the order of their references.
+     */
+    @Test
+    public void testLoopRejected() throws TypeError {
+        base.update(new CellLocation(0, 0), new Reference("A1"));
+        base.update(new CellLocation(1, 0), new Reference("A2"));
+        ReferenceLoop loop = assertThrows(ReferenceLoop.class,
+                () -> base.update(new CellLocation(2, 0), new Reference("A0")));
+        assertEquals("Loop did not list its cells in the order of their references.",
+                List.of(new CellLocation(2, 0), new CellLocation(0, 0), new CellLocation(1, 0)),
+                loop.loop());
+        assertEquals("Loop was not described.", "A2 -> A0 -> A1 -> A2", loop.getMessage());
+        assertEquals("Rejected update was not rolled back.",
+                new FormulaExpr("Default"), base.formulaAt(new CellLocation(2, 0)));
+        assertTrue("Sheet did not accept an update once the loop was avoided.",
+                base.update(2, 0, "Unused").isSuccess());
+    }
+
+    /**
+     * Builds a diamond where A1 and B1 use A0 and A2 uses both A1 and B1.
+     * Asserts that updating A0 evaluates A2 exactly once.
+     */
+    @Test(timeout = 6000)
+    public void testDiamondEvaluatedOnce() throws TypeError {
+        base.update(new CellLocation(1, 0), new RefExpr("A0"));
+        base.update(new CellLocation(1, 1), new RefExpr("A0"));
+        CountingExpr bottom = new CountingExpr("A1", "B1");
+        base.update(new CellLocation(2, 0), bottom);
+        assertEquals(1, bottom.getEvaluations());
+
+        base.update(new CellLocation(0, 0), new FormulaExpr("Apex"));
+        assertEquals("Cell reachable through two paths was evaluated more than once.",
+                2, bottom.getEvaluations());
+        assertEquals("Value(Apex)", base.valueAt(1, 0).getContent());
+        assertEquals("Value(Apex)", base.valueAt(1, 1).getContent());
+    }
+
+    /**
+     * Asserts that a cell whose recalculated value is unchanged
+     * does not cause the cells using it to be recalculated.
+     */
+    @Test(timeout = 6000)
+    public void testUnchangedValueStopsPropagation() throws TypeError {
+        base.update(new CellLocation(0, 0), new FormulaExpr("Apex"));
+        base.update(new CellLocation(1, 0), new RefExpr("A0"));
+        CountingExpr bottom = new CountingExpr("A1");
+        base.update(new CellLocation(2, 0), bottom);
+        assertEquals(1, bottom.getEvaluations());
+
+        base.update(new CellLocation(0, 0), new FormulaExpr("Apex"));
+        assertEquals("Cell was recalculated although its dependency did not change.",
+                1, bottom.getEvaluations());
+
+        base.update(new CellLocation(0, 0), new FormulaExpr("Other"));
+        assertEquals("Cell was not recalculated after its dependency changed.",
+                2, bottom.getEvaluations());
+        assertEquals("Value(Other)", base.valueAt(1, 0).getContent());
+    }
+
+    /**
+     * Asserts that a type error in a transitive usage leaves every cell unchanged.
+     */
+    @Test(timeout = 6000)
+    public void testTransitiveTypeErrorRollback() throws TypeError {
+        base.update(new CellLocation(0, 0), new FormulaExpr("Before"));
+        base.update(new CellLocation(1, 0), new RefExpr("A0"));
+        base.update(new CellLocation(2, 0), new FormulaExpr("Fails") {
+            @Override
+            public Set<String> dependencies() {
+                return Set.of("A1");
+            }
+
+            @Override
+            public Expression value(Map<String, Expression> state) throws TypeError {
+                if (state.get("A1").equals(new ValueExpr("After"))) {
+                    throw new TypeError();
+                }
+                return super.value(state);
+            }
+        });
+
+        assertThrows(TypeError.class,
+                () -> base.update(new CellLocation(0, 0), new FormulaExpr("After")));
+        assertEquals("Formula(Before)", base.formulaAt(0, 0).getContent());
+        assertEquals("Value(Before)", base.valueAt(0, 0).getContent());
+        assertEquals("Value(Before)", base.valueAt(1, 0).getContent());
+    }
+
+    /**
+     * Asserts that a failing division leaves the sheet as it was, and open to later updates.
+     */
+    @Test(timeout = 6000)
+    public void testDivisionByZeroRollback() {
+        for (boolean lazy : new boolean[]{false, true}) {
+            Sheet sheet = new SheetBuilder(new ComplexParser(new CoreFactory()), new Nothing())
+                    .recalculateLazily(lazy)
+                    .empty(3, 2);
+            sheet.update(0, 0, "5");
+            assertThrows(ArithmeticException.class, () -> sheet.update(1, 0, "A0 / 0"));
+            assertEquals("Failed division was kept.", "", sheet.formulaAt(1, 0).getContent());
+            assertEquals("Failed division left a value.", "", sheet.valueAt(1, 0).getContent());
+
+            assertTrue("Update after a failed division was rejected.",
+                    sheet.update(0, 0, "6").isSuccess());
+            assertEquals("6", sheet.formulaAt(0, 0).getContent());
+            assertEquals("Update after a failed division was not evaluated.",
+                    "6", sheet.valueAt(0, 0).getContent());
+            sheet.update(1, 0, "A0 / 2");
+            assertEquals("3", sheet.valueAt(1, 0).getContent());
+        }
+    }
+
+    /**
+     * Asserts that a batch may refer to cells inserted later in the same batch.
+     */
+    @Test(timeout = 6000)
+    public void testUpdateAllForwardReference() {
+        List<UpdateResponse> responses = base.updateAll(List.of(
+                new CellEdit(0, 0, "->A1"),
+                new CellEdit(1, 0, "AtA1"),
+                new CellEdit(2, 0, SpecialStrings.ThrowParseException.label)));
+        assertTrue(responses.get(0).isSuccess());
+        assertTrue(responses.get(1).isSuccess());
+        assertEquals("Unable to parse: " + SpecialStrings.ThrowParseException.label,
+                responses.get(2).getMessage());
+        assertEquals("Value(AtA1)", base.valueAt(0, 0).getContent());
+        assertEquals("Value(AtA1)", base.valueAt(1, 0).getContent());
+        assertEquals("Formula(Default)", base.formulaAt(2, 0).getContent());
+    }
+
+    /**
+     * Asserts that a type error anywhere in a batch rolls back every edit in the batch.
+     */
+    @Test(timeout = 6000)
+    public void testUpdateAllTypeErrorRollback() {
+        base.update(0, 0, "Before");
+        List<UpdateResponse> responses = base.updateAll(List.of(
+                new CellEdit(0, 0, "After"),
+                new CellEdit(1, 0, "->A0"),
+                new CellEdit(2, 0, SpecialStrings.ThrowTypeError.label)));
+        for (UpdateResponse response : responses) {
+            assertFalse("Edit in a failed batch reported success.", response.isSuccess());
+            assertTrue(response.getMessage().startsWith("Type error: sheep.expression.TypeError"));
+        }
+        assertEquals("Formula(Before)", base.formulaAt(0, 0).getContent());
+        assertEquals("Value(Before)", base.valueAt(0, 0).getContent());
+        assertEquals("Formula(Default)", base.formulaAt(1, 0).getContent());
+        assertTrue("Rolled back edit left a usage behind.",
+                base.usedBy(new CellLocation(0, 0)).isEmpty());
+    }
+
+    /**
+     * Asserts that a batch is checked for loops as a whole: a loop closed by two edits
+     * is rejected, but a reference replaced in the same batch does not make a loop.
+     */
+    @Test(timeout = 6000)
+    public void testUpdateAllLoops() {
+        base.update(1, 0, "->A0");
+        List<UpdateResponse> responses = base.updateAll(List.of(
+                new CellEdit(0, 0, "->A1"),
+                new CellEdit(1, 0, "AtA1")));
+        assertTrue("Batch replacing the reference that would loop was rejected.",
+                responses.get(0).isSuccess());
+        assertEquals("Value(AtA1)", base.valueAt(0, 0).getContent());
+
+        responses = base.updateAll(List.of(
+                new CellEdit(2, 0, "->A3"),
+                new CellEdit(3, 0, "->A2")));
+        for (UpdateResponse response : responses) {
+            assertFalse("Batch closing a loop was accepted.", response.isSuccess());
+            assertEquals("Type error: sheep.sheets.ReferenceLoop: A3 -> A2 -> A3",
+                    response.getMessage());
+        }
+        assertEquals("Formula(Default)", base.formulaAt(2, 0).getContent());
+        assertTrue("Rejected batch left a usage behind.",
+                base.usedBy(new CellLocation(2, 0)).isEmpty());
+        assertTrue("Sheet did not accept an update once the loop was avoided.",
+                base.update(3, 0, "->A2").isSuccess());
+    }
+
+    /**
+     * Asserts that streaming the encoding writes the same characters as encode().
+     */
+    @Test(timeout = 6000)
+    public void testEncodeToMatchesEncode() throws IOException {
+        base.update(0, 0, "First");
+        base.update(2, 1, "->A0");
+        base.update(4, 2, "Last");
+        StringWriter writer = new StringWriter();
+        base.encodeTo(writer);
+        assertEquals("Streamed encoding differs from encode().", base.encode(), writer.toString());
+    }
 }
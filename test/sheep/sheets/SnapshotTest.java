@@ -0,0 +1,180 @@
+package sheep.sheets;
+
+import sheep.expression.CoreFactory;
+import sheep.expression.basic.Nothing;
+import sheep.expression.basic.Reference;
+import sheep.parsing.ComplexParser;
+import sheep.parsing.ParseException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import static org.junit.Assert.*;
+
+public class SnapshotTest {
+    @Rule
+    public Timeout timeout = new Timeout(60000);
+
+    private SheetBuilder builder;
+
+    @Before
+    public void setUp() {
+        builder = new SheetBuilder(new ComplexParser(new CoreFactory()), new Nothing());
+    }
+
+    private Sheet sample(Sheet sheet) {
+        sheet.update(0, 0, "4");
+        sheet.update(1, 0, "A0 + A0");
+        sheet.update(0, 1, "A1 * 4");
+        sheet.update(1, 1, "A0 + A1 + B0");
+        return sheet;
+    }
+
+    private byte[] snapshot(Sheet sheet) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        sheet.writeSnapshot(out);
+        return out.toByteArray();
+    }
+
+    private Sheet read(byte[] bytes) throws Exception {
+        return Snapshot.read(new ByteArrayInputStream(bytes), new ComplexParser(new CoreFactory()),
+                new HashMap<>(), new Nothing());
+    }
+
+    private void assertSameSheet(Sheet expected, Sheet actual) {
+        assertEquals("Snapshot has incorrect number of rows.", expected.getRows(), actual.getRows());
+        assertEquals("Snapshot has incorrect number of columns.",
+                expected.getColumns(), actual.getColumns());
+        assertEquals("Snapshot has incorrect formulas.", expected.encode(), actual.encode());
+        for (int row = 0; row < expected.getRows(); row++) {
+            for (int column = 0; column < expected.getColumns(); column++) {
+                assertEquals("Snapshot has incorrect value at " + row + ", " + column + ".",
+                        expected.valueAt(row, column).getContent(),
+                        actual.valueAt(row, column).getContent());
+            }
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Sheet sheet = sample(builder.empty(3, 2));
+        Sheet restored = read(snapshot(sheet));
+        assertSameSheet(sheet, restored);
+        assertEquals("Value was not restored.", "44", restored.valueAt(1, 1).getContent());
+    }
+
+    @Test
+    public void testRoundTripSparse() throws Exception {
+        Sheet sheet = sample(builder.sparse(1000, 26));
+        Sheet restored = read(snapshot(sheet));
+        assertSameSheet(sheet, restored);
+    }
+
+    @Test
+    public void testRestoredDependencies() throws Exception {
+        Sheet restored = read(snapshot(sample(builder.empty(3, 2))));
+        restored.update(0, 0, "2");
+        assertEquals("Dependant cell was not recalculated.", "4",
+                restored.valueAt(1, 0).getContent());
+        assertEquals("Transitively dependant cell was not recalculated.", "22",
+                restored.valueAt(1, 1).getContent());
+    }
+
+    @Test
+    public void testLoadSnapshot() throws Exception {
+        Path file = Files.createTempFile("sheet", ".sheepb");
+        try {
+            Sheet sheet = sample(builder.empty(3, 2));
+            Files.write(file, snapshot(sheet));
+            assertSameSheet(sheet, builder.loadSnapshot(file.toString()));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testRejectsWrongMagic() throws Exception {
+        byte[] bytes = snapshot(sample(builder.empty(3, 2)));
+        bytes[0] = 'X';
+        assertThrows(ParseException.class, () -> read(bytes));
+    }
+
+    @Test
+    public void testRejectsCorruption() throws Exception {
+        byte[] bytes = snapshot(sample(builder.empty(3, 2)));
+        bytes[bytes.length / 2] ^= 0x10;
+        assertThrows(ParseException.class, () -> read(bytes));
+    }
+
+    @Test
+    public void testRejectsTruncation() throws Exception {
+        byte[] bytes = snapshot(sample(builder.empty(3, 2)));
+        assertThrows(ParseException.class,
+                () -> read(Arrays.copyOf(bytes, bytes.length - 3)));
+    }
+
+    @Test
+    public void testLongText() throws Exception {
+        Sheet sheet = builder.empty(2, 1);
+        String identifier = "x".repeat(70000);
+        sheet.update(new CellLocation(0, 0), new Reference(identifier));
+        Sheet read = read(snapshot(sheet));
+        assertEquals("Text of 64 KB or more was not stored.",
+                identifier, read.formulaAt(0, 0).getContent());
+        assertEquals("Value holding long text was not stored.",
+                identifier, read.valueAt(0, 0).getContent());
+    }
+
+    @Test
+    public void testEqualFormulasStoredOnce() throws Exception {
+        Sheet small = builder.empty(1000, 2);
+        Sheet large = builder.empty(2000, 2);
+        for (Sheet sheet : List.of(small, large)) {
+            sheet.update(0, 0, "3");
+            for (int row = 1; row < sheet.getRows(); row++) {
+                sheet.update(row, 1, "A0 * 2");
+            }
+        }
+        // each further cell costs its formula, value and usage entries, but no new expressions
+        int perCell = (snapshot(large).length - snapshot(small).length) / 1000;
+        assertTrue("Equal formulas were stored more than once: " + perCell + " bytes per cell.",
+                perCell <= 20);
+    }
+
+    @Test
+    public void testReadsVersionOne() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CheckedOutputStream checked = new CheckedOutputStream(bytes, new CRC32());
+        DataOutputStream data = new DataOutputStream(checked);
+        data.writeInt(Snapshot.MAGIC);
+        data.writeShort(1);
+        data.writeBoolean(false);
+        data.writeInt(1);
+        data.writeInt(1);
+        data.writeInt(1);
+        data.writeByte(2);
+        data.writeUTF("life");
+        data.writeInt(1);
+        data.writeInt(0);
+        data.writeInt(0);
+        data.writeInt(0);
+        data.writeInt(0);
+        data.flush();
+        new DataOutputStream(bytes).writeLong(checked.getChecksum().getValue());
+        Sheet read = read(bytes.toByteArray());
+        assertEquals("Version 1 snapshot was not read.", "life", read.formulaAt(0, 0).getContent());
+    }
+}
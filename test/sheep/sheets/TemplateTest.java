@@ -0,0 +1,241 @@
+package sheep.sheets;
+
+import sheep.core.UpdateResponse;
+import sheep.expression.CoreFactory;
+import sheep.expression.EvaluationContext;
+import sheep.expression.Expression;
+import sheep.expression.basic.Constant;
+import sheep.expression.basic.Nothing;
+import sheep.parsing.ComplexParser;
+import sheep.parsing.ParseException;
+import sheep.parsing.Parser;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.*;
+
+public class TemplateTest {
+    private Parser parser;
+    private Sheet sheet;
+
+    @Before
+    public void setUp() {
+        parser = new ComplexParser(new CoreFactory());
+        sheet = new SheetBuilder(parser, new Nothing()).empty(30, 3);
+    }
+
+    private static int slot(String identifier) {
+        return identifier.equals("life") ? 0 : -1;
+    }
+
+    private Template template(String formula, int row, int column) throws ParseException {
+        return Template.of(parser.parse(formula), row, column, 30, 3, TemplateTest::slot);
+    }
+
+    @Test
+    public void testRelativeFormulasEqual() throws ParseException {
+        assertEquals("Formulas at different cells with the same offsets were not equal.",
+                template("A1 + A0", 2, 0), template("A2 + A1", 3, 0));
+        assertEquals("Formulas at different cells with the same offsets were not equal.",
+                template("A0 * 2", 0, 1), template("B5 * 2", 5, 2));
+        assertNotEquals("Formulas with different offsets were equal.",
+                template("A1 + A0", 2, 0), template("A1 + A0", 3, 0));
+    }
+
+    @Test
+    public void testNotTemplates() throws ParseException {
+        assertNull("A constant was made a template.", template("5", 0, 0));
+        assertNull("A reference outside the sheet was made a template.",
+                template("Z100", 0, 0));
+        assertNull("A lone unknown name was made a template.", template("undefined", 0, 0));
+    }
+
+    @Test
+    public void testConstantFormulasFolded() throws ParseException {
+        assertEquals("A formula without cell references was not folded.",
+                1, template("2 * 3 + (4)", 0, 0).size());
+        assertEquals("A constant function was not folded.",
+                1, template("MEAN(1, 2, 3)", 0, 0).size());
+        sheet.update(0, 0, "2 + 3 * (4)");
+        assertEquals("Folded formula did not keep how it was written.",
+                "2 + 3 * (4)", sheet.formulaAt(0, 0).getContent());
+        assertEquals("Folded formula did not evaluate as written.", "14", sheet.valueAt(0, 0).getContent());
+    }
+
+    @Test
+    public void testBoundCells() throws ParseException {
+        assertArrayEquals("Template did not bind the cells it refers to.",
+                new int[] {1 * 3 + 1, 2 * 3}, template("A1 + B0", 3, 0).cells(4, 0, 3));
+        assertArrayEquals("Template did not bind a cell written with a leading zero.",
+                new int[] {1 * 3}, template("A01 + 1", 3, 0).cells(7, 0, 3));
+        assertArrayEquals("Template bound a built-in as a cell.",
+                new int[0], template("life * 2", 3, 0).cells(3, 0, 3));
+    }
+
+    @Test
+    public void testInstantiate() throws ParseException {
+        Expression formula = parser.parse("A1 + A0 * 2 + life");
+        Template template = Template.of(formula, 2, 0, 30, 3, TemplateTest::slot);
+        assertEquals("Instantiating a template did not reproduce the formula.",
+                formula.render(), template.instantiate(2, 0).render());
+        assertEquals("Instantiating a template did not move its references.",
+                "A4 + A3 * 2 + life", template.instantiate(5, 0).render());
+        assertEquals("Template dependencies did not match the formula.",
+                Set.of("A3", "A4", "life"), template.dependencies(5, 0));
+    }
+
+    @Test
+    public void testConstantsFolded() throws ParseException {
+        Template template = template("A0 + (2 * 3)", 2, 0);
+        assertEquals("Constant parts of a formula were not folded.", 3, template.size());
+        assertEquals("Folding changed how the formula is written.",
+                "A1 + (2 * 3)", template.instantiate(3, 0).render());
+        assertEquals("A constant function was not folded.",
+                3, template("A0 + MEDIAN(1, 5, 3)", 2, 0).size());
+    }
+
+    @Test
+    public void testNestedSimplified() throws ParseException {
+        Template template = template("A0 * (A1 + (A2 + 1))", 4, 0);
+        assertEquals("Parentheses and nested additions were not simplified.", 6, template.size());
+        assertEquals("Simplifying changed how the formula is written.",
+                "A0 * (A1 + (A2 + 1))", template.instantiate(4, 0).render());
+        assertEquals("Only the first argument of a subtraction may be flattened.",
+                5, template("A0 - (A1 - A2)", 4, 0).size());
+    }
+
+    @Test
+    public void testSimplifiedValue() {
+        sheet.update(0, 0, "7");
+        sheet.update(1, 0, "A0 * (A0 + (2 + 1))");
+        sheet.update(2, 0, "(A0)");
+        assertEquals("Simplified formula did not evaluate as written.",
+                new Constant(70), sheet.valueAt(new CellLocation(1, 0)));
+        assertFalse("Parentheses did not require a number.", sheet.update(0, 0, "").isSuccess());
+        assertEquals("Simplified formula changed after a type error.",
+                new Constant(7), sheet.valueAt(new CellLocation(2, 0)));
+    }
+
+    @Test
+    public void testErrorNotFolded() throws ParseException {
+        Template template = template("A0 + 1 / 0", 2, 0);
+        assertEquals("A constant division by zero was folded.", 5, template.size());
+        sheet.update(0, 0, "1");
+        assertThrows(ArithmeticException.class, () -> sheet.update(1, 0, "A0 + 1 / 0"));
+    }
+
+    private static Class<?> raised(Callable<Expression> evaluation) {
+        try {
+            return evaluation.call().getClass();
+        } catch (Exception e) {
+            return e.getClass();
+        }
+    }
+
+    @Test
+    public void testNestedOperationsKeepErrors() throws Exception {
+        CoreFactory factory = new CoreFactory();
+        Map<String, Expression> state = Map.of("A1", new Constant(3),
+                "A2", new Constant(0), "A3", new Nothing());
+        EvaluationContext context = EvaluationContext.of(state);
+        Template.CellValues cells = new Template.CellValues() {
+            @Override
+            public Expression valueAt(int row, int column) {
+                return state.getOrDefault("A" + row, new Nothing());
+            }
+
+            @Override
+            public Expression builtinAt(int slot) {
+                throw new AssertionError();
+            }
+        };
+        for (String operator : new String[] {"/", "-", "+", "*"}) {
+            for (String[] operands : new String[][] {{"1", "A2", "A3"}, {"12", "A1", "A1"},
+                    {"A3", "A1", "A2"}, {"A1", "A2", "A1"}}) {
+                Expression[] inner = new Expression[2];
+                for (int i = 0; i < 2; i++) {
+                    inner[i] = parser.parse(operands[i]);
+                }
+                Expression formula = factory.createOperator(operator, new Object[] {
+                        factory.createOperator(operator, inner), parser.parse(operands[2])});
+                Template template = Template.of(formula, 5, 0, 30, 3, TemplateTest::slot);
+                assertEquals("Simplifying " + formula + " changed its outcome.",
+                        raised(() -> formula.value(context)),
+                        raised(() -> template.value(5, 0, context, cells)));
+                if (raised(() -> formula.value(context)) == Constant.class) {
+                    assertEquals("Simplifying " + formula + " changed its value.",
+                            formula.value(context), template.value(5, 0, context, cells));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLeadingZeroKeptAsName() throws ParseException {
+        Template template = template("A01 + A0", 2, 0);
+        assertEquals("A reference was not kept as written.",
+                "A01 + A3", template.instantiate(5, 0).render());
+    }
+
+    @Test
+    public void testSharedColumn() {
+        sheet.update(0, 0, "1");
+        sheet.update(1, 0, "1");
+        for (int row = 2; row < 30; row++) {
+            sheet.update(row, 0, "A" + (row - 1) + " + A" + (row - 2));
+        }
+        assertEquals("Shared formula was not evaluated correctly.",
+                new Constant(832040), sheet.valueAt(new CellLocation(29, 0)));
+        assertEquals("Shared formula was not rendered as written.",
+                "A28 + A27", sheet.formulaAt(29, 0).getContent());
+        assertEquals("Shared formula did not report its dependencies.",
+                Set.of("A28", "A27"), sheet.formulaAt(new CellLocation(29, 0)).dependencies());
+
+        sheet.update(0, 0, "2");
+        assertEquals("Shared formulas were not recalculated.",
+                new Constant(1149851), sheet.valueAt(new CellLocation(29, 0)));
+    }
+
+    @Test
+    public void testSharedFormulaFormulaAt() {
+        sheet.update(0, 0, "3");
+        sheet.update(0, 1, "A0 * 2");
+        Expression formula = sheet.formulaAt(new CellLocation(0, 1));
+        assertFalse("The stored template leaked out of the sheet.",
+                formula instanceof SharedFormula);
+        assertEquals("The formula of a shared cell was not reconstructed.",
+                "A0 * 2", formula.render());
+    }
+
+    @Test
+    public void testBoundBuiltin() {
+        Sheet builtinSheet = new SheetBuilder(parser, new Nothing())
+                .includeBuiltIn("life", new Constant(42))
+                .empty(3, 3);
+        builtinSheet.update(0, 0, "life");
+        builtinSheet.update(1, 0, "life + A0");
+        assertEquals("Built-in was not bound.",
+                new Constant(42), builtinSheet.valueAt(new CellLocation(0, 0)));
+        assertEquals("Built-in was not bound.",
+                new Constant(84), builtinSheet.valueAt(new CellLocation(1, 0)));
+        assertEquals("Bound built-in was not rendered as written.",
+                "life + A0", builtinSheet.formulaAt(1, 0).getContent());
+    }
+
+    @Test
+    public void testSharedFormulaTypeError() {
+        sheet.update(0, 0, "3");
+        sheet.update(0, 1, "A0 * 2");
+        UpdateResponse response = sheet.update(0, 1, "undefined + A0");
+        assertFalse("A formula with an unbound name was accepted.", response.isSuccess());
+        assertEquals("A rejected update changed the formula.",
+                "A0 * 2", sheet.formulaAt(0, 1).getContent());
+        assertEquals("A rejected update changed the value.",
+                new Constant(6), sheet.valueAt(new CellLocation(0, 1)));
+    }
+}